@@ -17,17 +17,13 @@ package com.polarion.alm.extensions.codereview;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -39,6 +35,12 @@ import javax.servlet.http.HttpServletResponse;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.polarion.alm.extensions.codereview.diff.DiffAlgorithmType;
+import com.polarion.alm.extensions.codereview.diff.DiffBudget;
+import com.polarion.alm.extensions.codereview.diff.LineTokenizer;
+import com.polarion.alm.extensions.codereview.diff.TokenTable;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.alm.extensions.codereview.diff.WhitespaceMode;
 import com.polarion.alm.shared.api.SharedContext;
 import com.polarion.alm.shared.api.transaction.TransactionalExecutor;
 import com.polarion.alm.shared.api.utils.html.HtmlContentBuilder;
@@ -80,6 +82,48 @@ public class CodeReviewServlet extends HttpServlet {
     static final String PARAM_REVIEW_SELECTED = "reviewSelected";
     static final String PARAM_REVISIONS_TO_MARK = "revisionsToMark";
     static final String PARAM_SET_CURRENT_REVIEWER = "setCurrentReviewer";
+    static final String PARAM_REPOSITORY = "repository";
+    static final String PARAM_FROM_LINE = "fromLine";
+    static final String PARAM_TO_LINE = "toLine";
+    static final String PARAM_WORD_DIFF = "wordDiff";
+    static final String PARAM_FROM_PATH = "fromPath";
+    static final String PARAM_FRAGMENT = "fragment";
+    static final String PARAM_WORK_ITEM = "workItem";
+
+    private static final String PAGE_TAIL = "<script type=\"text/javascript\">hljs.initHighlightingOnLoad();</script>" + "</body></html>";
+    private static final String MAIN_CONTAINER_START = "<div id=\"codeReviewContainer\" class=\"cr_main_container\">";
+    private static final String MAIN_CONTAINER_END = "</div>";
+
+    // identical review pages requested by the same user at the same time are rendered once, see RenderCoalescer; bigger
+    // pages are streamed without being kept, their followers render on their own
+    private static final long COALESCED_RENDER_TIMEOUT = 60000;
+    private static final int MAX_COALESCED_PAGE_LENGTH = 512 * 1024;
+
+    // unchanged lines shown around the changes of renamed files if the project shows whole files
+    private static final int RENAME_CONTEXT_LINES = 3;
+
+    private transient StaticResources staticResources;
+    private transient RequestExecutor requestExecutor;
+    private transient RequestExecutor compareExecutor;
+    private final transient RenderCoalescer renderCoalescer = new RenderCoalescer();
+
+    @Override
+    public void init() throws ServletException {
+        staticResources = new StaticResources(getServletContext());
+        try {
+            staticResources.preload();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        requestExecutor = RequestExecutor.forPages(securityService);
+        compareExecutor = RequestExecutor.forCompares(securityService);
+    }
+
+    @Override
+    public void destroy() {
+        requestExecutor.shutdown();
+        compareExecutor.shutdown();
+    }
 
     @Override
     protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -91,10 +135,11 @@ public class CodeReviewServlet extends HttpServlet {
                 String relativeUri = uri.substring("/polarion/".length());
 
                 if (relativeUri.startsWith("codereview/compare/")) {
-                    serveCompare(request, response, relativeUri.substring("codereview/compare/".length()));
+                    String path = relativeUri.substring("codereview/compare/".length());
+                    compareExecutor.execute(request, response, () -> serveCompare(request, response, path));
                     return;
                 }
-                serveResource(response, relativeUri);
+                serveResource(request, response, relativeUri);
                 return;
             }
 
@@ -103,7 +148,7 @@ public class CodeReviewServlet extends HttpServlet {
             } else if (request.getParameter(PARAM_SET_CURRENT_REVIEWER) != null) {
                 doSetCurrentReviewer(request, response);
             } else {
-                serveMain(request, response);
+                requestExecutor.execute(request, response, () -> serveMain(request, response));
             }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -153,16 +198,52 @@ public class CodeReviewServlet extends HttpServlet {
     }
 
     private void serveCompareInternal(@NotNull SharedContext context, @NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull String path) throws IOException {
+        String revision = getRevisionParameter(request, "revision");
+        String revision2 = getRevisionParameter(request, "revision2");
+        String fromPath = request.getParameter(PARAM_FROM_PATH);
+        int[] lineRange;
+        int[] wordDiffLines;
+        WhitespaceMode whitespaceMode;
+        Parameters parameters;
+        try {
+            path = URLDecoder.decode(path, StandardCharsets.UTF_8.name());
+            lineRange = parseLines(request.getParameter(PARAM_FROM_LINE), request.getParameter(PARAM_TO_LINE));
+            wordDiffLines = parseLines(request.getParameter(PARAM_WORD_DIFF));
+            String whitespace = request.getParameter(Parameters.PARAM_WHITESPACE);
+            whitespaceMode = whitespace != null ? WhitespaceMode.parse(whitespace) : null;
+            parameters = getCompareParameters(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
         String content;
         try {
-            String revision = getRevisionParameter(request, "revision");
-            String revision2 = getRevisionParameter(request, "revision2");
+            String repositoryName = request.getParameter(PARAM_REPOSITORY);
 
-            ILocation repositoryLocation = Location.getLocationWithRepository(IRepositoryService.DEFAULT, "/"); //$NON-NLS-1$
+            ILocation repositoryLocation = Location.getLocationWithRepository(repositoryName != null ? repositoryName : IRepositoryService.DEFAULT, "/"); //$NON-NLS-1$
             IRepositoryReadOnlyConnection connection = repoService.getReadOnlyConnection(repositoryLocation);
 
-            path = URLDecoder.decode(path, StandardCharsets.UTF_8.name());
             ILocation fileLocation = repositoryLocation.append(path);
+            // a renamed file is compared with its previous path
+            ILocation fromLocation = fromPath != null ? repositoryLocation.append(fromPath) : fileLocation;
+
+            String fragment = null;
+            if (revision != null && lineRange != null) {
+                // lines of a collapsed unchanged region, see FileCompareRenderer
+                TokenizedText text = getTokenizedContent(connection, fileLocation.setRevision(revision), new TokenTable());
+                fragment = FileCompareRenderer.renderLines(text, lineRange[0], lineRange[1]);
+            } else if (revision != null && revision2 != null && wordDiffLines != null) {
+                // deleted and inserted lines of one change compared word by word, see FileCompareRenderer
+                TokenTable tokenTable = new TokenTable();
+                TokenizedText firstText = getTokenizedContent(connection, fromLocation.setRevision(revision), tokenTable);
+                TokenizedText secondText = getTokenizedContent(connection, fileLocation.setRevision(revision2), tokenTable);
+                DiffBudget diffBudget = new DiffBudget(parameters != null ? parameters.getDiffBudget() : Parameters.DEFAULT_DIFF_BUDGET);
+                fragment = FileCompareRenderer.renderWordDiff(firstText, secondText, wordDiffLines[0], wordDiffLines[1], wordDiffLines[2], wordDiffLines[3], diffBudget);
+            }
+            if (fragment != null) {
+                serveContent(request, response, fragment);
+                return;
+            }
 
             HtmlFragmentBuilder builder = context.createHtmlFragmentBuilderFor().gwt();
             if (revision == null) {
@@ -172,28 +253,44 @@ public class CodeReviewServlet extends HttpServlet {
                     revision2 = revision;
                     revision = connection.getPreviousState(revision);
                 }
-                ILocation location1 = fileLocation.setRevision(revision);
+                ILocation location1 = fromLocation.setRevision(revision);
                 ILocation location2 = fileLocation.setRevision(revision2);
 
                 if (connection.isFile(location1) && connection.isFile(location2)) {
-                    new FileCompareRenderer(connection, builder).append(location1, location2);
+                    // the settings come from the project of the work item of lazily loaded compares, the defaults apply otherwise
+                    DiffAlgorithmType diffAlgorithm = parameters != null ? parameters.getDiffAlgorithm() : DiffAlgorithmType.auto;
+                    if (whitespaceMode == null) {
+                        whitespaceMode = parameters != null ? parameters.getWhitespaceMode() : WhitespaceMode.eol;
+                    }
+                    int diffBudget = parameters != null ? parameters.getDiffBudget() : Parameters.DEFAULT_DIFF_BUDGET;
+                    int contextLines = parameters != null ? parameters.getDiffContextLines() : -1;
+                    if (fromPath != null && contextLines < 0) {
+                        // like appendRename()
+                        contextLines = RENAME_CONTEXT_LINES;
+                    }
+                    int longLineLength = parameters != null ? parameters.getLongLineLength() : Parameters.DEFAULT_LONG_LINE_LENGTH;
+                    LineDiffLoader lineDiffLoader = new LineDiffLoader(connection, diffAlgorithm, whitespaceMode, new DiffBudget(diffBudget), securityService);
+                    new FileCompareRenderer(builder, lineDiffLoader, contextLines, longLineLength).append(location1, location2);
                 } else if (connection.isFile(location1)) {
                     appendContent(builder, connection, location1).attributes().style("background:#ffe6e6;");
                 } else {
                     appendContent(builder, connection, location2).attributes().style("background:#e6ffe6;");
                 }
             }
-            content = createPageHtml(builder.toString());
+            if (!Boolean.parseBoolean(request.getParameter(PARAM_FRAGMENT))) {
+                // a whole page is compressed while it is sent, see PageWriter
+                try (PageWriter page = new PageWriter(context, request, response)) {
+                    page.write(createPageHead());
+                    page.write(builder);
+                    page.write(PAGE_TAIL);
+                }
+                return;
+            }
+            content = builder.toString();
         } catch (RepositoryException e) {
             content = e.getMessage();
         }
-        OutputStream out = response.getOutputStream();
-        try {
-
-            serveContent(response, out, content);
-        } finally {
-            out.close();
-        }
+        serveContent(request, response, content);
     }
 
     private @NotNull HtmlTagBuilder appendContent(@NotNull HtmlFragmentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull ILocation location) {
@@ -215,15 +312,77 @@ public class CodeReviewServlet extends HttpServlet {
         return value;
     }
 
+    /**
+     * @param values line numbers, a single value may also hold all of them separated by commas
+     * @return the line numbers, null if any value is missing
+     * @throws IllegalArgumentException if a value is not a line number
+     */
+    private static @Nullable int[] parseLines(@Nullable String... values) {
+        if (values.length == 1 && values[0] != null) {
+            values = values[0].split(",", -1);
+            if (values.length != 4) {
+                throw new IllegalArgumentException("Expected 4 line numbers: " + String.join(",", values));
+            }
+        }
+        int[] lines = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                return null;
+            }
+            lines[i] = Integer.parseInt(values[i].trim());
+            if (lines[i] < 0) {
+                throw new IllegalArgumentException("Negative line number: " + lines[i]);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return settings of the project of the work item named by the request (lazily loaded compares of review pages),
+     *         null if it names none
+     * @throws IllegalArgumentException if the work item does not exist
+     */
+    private @Nullable Parameters getCompareParameters(@NotNull HttpServletRequest request) {
+        String projectId = request.getParameter(Parameters.PARAM_PROJECT_ID);
+        String workItemId = request.getParameter(PARAM_WORK_ITEM);
+        if (projectId == null || workItemId == null) {
+            return null;
+        }
+        ParametersContext parametersContext = PlatformParametersContext.createFromPlatform();
+        IWorkItem workItem = parametersContext.getWorkItem(projectId, workItemId);
+        if (workItem.isUnresolvable()) {
+            throw new IllegalArgumentException("Unknown work item " + projectId + "/" + workItemId);
+        }
+        return new Parameters(parametersContext, workItem);
+    }
+
     private void serveMain(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) {
         TransactionalExecutor.executeSafelyInReadOnlyTransaction(transaction -> {
             try {
-                OutputStream out = response.getOutputStream();
-                try {
-                    String content = render(transaction.context(), createParameters(request));
-                    serveContent(response, out, content);
+                Parameters parameters = createParameters(request);
+                RenderCoalescer.Flight flight = null;
+                if (parameters.getWorkItem().isPersisted()) {
+                    List<Object> renderKey = createRenderKey(parameters);
+                    flight = renderCoalescer.start(renderKey);
+                    if (flight == null) {
+                        String content = renderCoalescer.await(renderKey, COALESCED_RENDER_TIMEOUT);
+                        if (content != null) {
+                            serveContent(request, response, content);
+                            return null;
+                        }
+                    }
+                }
+                String content = null;
+                try (PageWriter page = new PageWriter(transaction.context(), request, response)) {
+                    if (flight != null) {
+                        page.record(MAX_COALESCED_PAGE_LENGTH);
+                    }
+                    render(page, parameters);
+                    content = page.getRecording();
                 } finally {
-                    out.close();
+                    if (flight != null) {
+                        flight.complete(content);
+                    }
                 }
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
@@ -232,66 +391,58 @@ public class CodeReviewServlet extends HttpServlet {
         });
     }
 
-    private void serveContent(@NotNull HttpServletResponse response, @NotNull OutputStream out, @NotNull String content) throws UnsupportedEncodingException, IOException {
-        response.setContentType("text/html;charset=utf-8");
-        byte[] bout = content.getBytes(StandardCharsets.UTF_8.name());
-        response.setIntHeader("Content-Length", bout.length);
+    /**
+     * @return all values the review page depends on; pages are not shared between users, read access to the repository
+     *         is checked per user and path, users with the same roles may see different files (only edit scripts
+     *         are shared by DiffCache, every user reads the files)
+     */
+    private @NotNull List<Object> createRenderKey(@NotNull Parameters parameters) {
+        IWorkItem workItem = parameters.getWorkItem();
+        return Arrays.asList(parameters.getViewKey(), workItem.getDataRevision(), securityService.getCurrentUser());
+    }
+
+    private void serveContent(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull String content) throws IOException {
         response.setContentType("text/html");
         response.setCharacterEncoding(StandardCharsets.UTF_8.name());
-        out.write(bout);
-        out.flush();
+        ResponseCompression.send(request, response, content.getBytes(StandardCharsets.UTF_8));
     }
 
-    private void serveResource(@NotNull HttpServletResponse response, @NotNull String uri) {
+    private void serveResource(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull String uri) {
         try {
-            setContentType(uri, response);
             if (uri.startsWith("codereview/")) {
                 uri = uri.substring("codereview/".length());
             }
-            copyResource(getServletContext().getResourceAsStream(uri), response.getOutputStream());
+            StaticResources.Resource resource = staticResources.get(uri);
+            if (resource != null) {
+                resource.send(request, response);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
     }
 
-    private static void setContentType(@NotNull String uri, @NotNull HttpServletResponse response) {
-        if (uri.endsWith(".js")) {
-            response.setContentType("text/javascript");
-        } else if (uri.endsWith(".html")) {
-            response.setContentType("text/html");
-        } else if (uri.endsWith(".png")) {
-            response.setContentType("image/png");
-        } else if (uri.endsWith("css")) {
-            response.setContentType("text/css");
-        }
-    }
-
-    private static void copyResource(@NotNull InputStream is, @NotNull OutputStream os) throws IOException {
-        try {
-            try {
-                byte[] buf = new byte[64 * 1024];
-                int len;
-                while ((len = is.read(buf)) != -1) {
-                    os.write(buf, 0, len);
-                }
-                os.flush();
-            } finally {
-                os.close();
-            }
-        } finally {
-            is.close();
-        }
-    }
-
-    private @NotNull String render(@NotNull SharedContext context, @NotNull Parameters parameters) {
+    /**
+     * Streams the page, the head and the navigation are sent right away and every file is sent as soon as it is
+     * rendered. The list of files is only complete at the end, it is written after the files and moved in front of
+     * them by the script.
+     */
+    private void render(@NotNull PageWriter page, @NotNull Parameters parameters) throws IOException {
         IWorkItem workItem = parameters.getWorkItem();
         boolean aggregated = parameters.isAggregatedCompare();
+        // the aggregated view needs all revisions to find the first and the last state of every file
+        Revisions.Page revisionPage = null;
+        if (workItem.isPersisted()) {
+            Revisions allRevisions = parameters.createRevisions();
+            revisionPage = aggregated ? allRevisions.getComparableRevisionsToReview(null, 0)
+                    : allRevisions.getComparableRevisionsToReview(parameters.getFromRevision(), parameters.getRevisionsPerPage());
+        }
 
-        HtmlFragmentBuilder builder = context.createHtmlFragmentBuilderFor().gwt();
-
-        HtmlTagBuilder nav = builder.tag().div();
+        page.write(createPageHead());
+        HtmlFragmentBuilder navBuilder = page.fragment();
+        HtmlTagBuilder nav = navBuilder.tag().div();
         nav.attributes().className("cr_nav");
-        HtmlTagBuilder fileInfo = builder.tag().div();
 
         if (aggregated) {
             HtmlTagBuilder link = nav.append().tag().a();
@@ -302,109 +453,200 @@ public class CodeReviewServlet extends HttpServlet {
             link.attributes().href(parameters.link().withAggregatedCompare(true).htmlLink());
             link.append().text("Show Aggregated View");
         }
+        nav.append().text(" ");
+        if (parameters.getWhitespaceMode() == WhitespaceMode.eol) {
+            HtmlTagBuilder link = nav.append().tag().a();
+            link.attributes().href(parameters.link().withWhitespaceMode(WhitespaceMode.change).htmlLink());
+            link.append().text("Ignore Whitespace Changes");
+        } else {
+            HtmlTagBuilder link = nav.append().tag().a();
+            link.attributes().href(parameters.link().withWhitespaceMode(WhitespaceMode.eol).htmlLink());
+            link.append().text("Show Whitespace Changes");
+        }
+        if (revisionPage != null && revisionPage.isPaged()) {
+            nav.append().text(" ");
+            appendPageLinks(nav, parameters, revisionPage);
+        }
+        page.write(navBuilder);
+        page.flush();
 
-        if (workItem.isPersisted()) {
-            HtmlTagBuilder container = appendMainContainer(builder);
+        if (revisionPage != null) {
+            HtmlFragmentBuilder fileInfoBuilder = page.fragment();
+            HtmlTagBuilder fileInfo = fileInfoBuilder.tag().div();
+            fileInfo.attributes().id("codeReviewFileInfo");
+            page.write(MAIN_CONTAINER_START);
 
             ILocation repoLocation = Location.getLocationWithRepository(IRepositoryService.DEFAULT, "/"); //$NON-NLS-1$
             IRepositoryReadOnlyConnection connection = repoService.getReadOnlyConnection(repoLocation);
 
-            List<IRevision> revisions = parameters.createRevisions().getComparableRevisionsToReview();
-
-            if (aggregated) {
-                for (IRevision revision : revisions) {
-                    for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
-                        if (metaData.isModified()) {
-                            if (!wasModifiedAfter(metaData, revision, revisions)) {
-                                try {
-                                    processLocationMetaDataAggregated(container.append(), connection, metaData, revision, revisions, fileInfo);
-                                } catch (Exception e) {
-                                    logger.error(e.getMessage(), e);
-                                }
-                            }
-                        } else {
-                            try {
-                                processLocationMetaDataAggregated(container.append(), connection, metaData, revision, revisions, fileInfo);
-                            } catch (Exception e) {
-                                logger.error(e.getMessage(), e);
-                            }
-                        }
-                    }
-                }
-
-            } else {
-                for (IRevision revision : revisions) {
-                    appendRevisionLabel(container, revision);
-                    for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
-                        try {
-                            processLocationMetaData(container.append(), connection, metaData, revision, fileInfo);
-                        } catch (Exception e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
+            List<IRevision> revisions = revisionPage.getRevisions();
+            LineDiffLoader lineDiffLoader = new LineDiffLoader(connection, parameters.getDiffAlgorithm(), parameters.getWhitespaceMode(), new DiffBudget(parameters.getDiffBudget()), securityService);
+            try {
+                RepositoryQueryCache repositoryQueries = new RepositoryQueryCache(connection);
+                RenameDetector renameDetector = detectRenames(connection, repositoryQueries, revisions, aggregated);
+                PathChangeIndex pathChanges = new PathChangeIndex(revisions);
+                if (!parameters.isLazyDiffs()) {
+                    prefetchDiffs(lineDiffLoader, repositoryQueries, revisions, aggregated, pathChanges, renameDetector);
                 }
+                renderRevisions(page, connection, repositoryQueries, revisions, fileInfo, parameters, lineDiffLoader, pathChanges, renameDetector);
+            } finally {
+                lineDiffLoader.cancel();
+            }
+            if (revisionPage.getNextCursor() != null) {
+                HtmlFragmentBuilder bottomNavBuilder = page.fragment();
+                HtmlTagBuilder bottomNav = bottomNavBuilder.tag().div();
+                bottomNav.attributes().className("cr_nav");
+                appendPageLinks(bottomNav, parameters, revisionPage);
+                page.write(bottomNavBuilder);
             }
+            page.write(MAIN_CONTAINER_END);
+            page.write(fileInfoBuilder);
 
             workItem.forget();
         }
-        builder.finished();
-        String pageContent = builder.toString();
+        page.write(PAGE_TAIL);
+    }
 
-        return createPageHtml(pageContent);
+    /**
+     * Appends the range of the shown revisions and links to the previous and the next page of revisions.
+     */
+    private void appendPageLinks(@NotNull HtmlTagBuilder nav, @NotNull Parameters parameters, @NotNull Revisions.Page revisionPage) {
+        String previousCursor = revisionPage.getPreviousCursor();
+        if (previousCursor != null) {
+            HtmlTagBuilder link = nav.append().tag().a();
+            link.attributes().href(parameters.link().withFromRevision(previousCursor).htmlLink());
+            link.append().text("Previous Revisions");
+            nav.append().text(" ");
+        }
+        int shown = revisionPage.getRevisions().size();
+        if (shown > 0) {
+            nav.append().text("Revisions " + (revisionPage.getOffset() + 1) + "-" + (revisionPage.getOffset() + shown) + " of " + revisionPage.getTotal());
+        }
+        String nextCursor = revisionPage.getNextCursor();
+        if (nextCursor != null) {
+            nav.append().text(" ");
+            HtmlTagBuilder link = nav.append().tag().a();
+            link.attributes().href(parameters.link().withFromRevision(nextCursor).htmlLink());
+            link.append().text("Next Revisions");
+        }
     }
 
-    private @NotNull String createPageHtml(@NotNull String pageContent) {
-        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><html><head><title>Code Review</title><link rel=\"shortcut icon\" href=\"/polarion/ria/images/favicon.ico\" />" +
-                "<link rel=\"stylesheet\" href=\"/polarion/codereview/styles/styles.css\" type=\"text/css\">" +
-                " <script src=\"/polarion/codereview/highlight.pack.js\"></script>" +
-                " <script src=\"/polarion/codereview/script.js\"></script>" +
-                " <script src=\"/polarion/codereview/jquery-3.0.0.min.js\"></script>" +
-                " <script src=\"/polarion/codereview/sticky-kit.min.js\"></script>" +
-                "<link href=\"/polarion/codereview/styles/mono-blue.css\" rel=\"stylesheet\" type=\"text/css\">" +
-                "</head><body>" +
-                pageContent + "<script type=\"text/javascript\">hljs.initHighlightingOnLoad();</script>" + "</body></html>";
-    }
-
-    private boolean wasModifiedAfter(@NotNull ILocationChangeMetaData metaData, @NotNull IRevision revisionMetaData, @NotNull List<IRevision> allRevisions) {
-        for (IRevision revision : allRevisions) {
-            if (getRevision(revision) > getRevision(revisionMetaData)) {
-                Collection<ILocationChangeMetaData> locationMetadatas = revision.getChangedLocations();
-                for (ILocationChangeMetaData locMetadata : locationMetadatas) {
-                    if (locMetadata.isModified()) {
-                        ILocation changeLocationTo = metaData.getChangeLocationTo().removeRevision();
-                        ILocation changeLocationTo2 = locMetadata.getChangeLocationTo().removeRevision();
-                        if (Objects.equals(changeLocationTo, changeLocationTo2)) {
-                            return true;
-                        }
+    /**
+     * Pairs removed and added files which are similar enough to be shown as renames, within each revision (within all
+     * revisions in the aggregated view).
+     */
+    private @NotNull RenameDetector detectRenames(@NotNull IRepositoryReadOnlyConnection connection, @NotNull RepositoryQueryCache repositoryQueries, @NotNull List<IRevision> revisions, boolean aggregated) {
+        RenameDetector renameDetector = new RenameDetector(connection);
+        for (IRevision revision : revisions) {
+            for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
+                ILocation changeLocationTo = metaData.getChangeLocationTo();
+                if (metaData.isRemoved()) {
+                    ILocation previousState = getPreviousState(changeLocationTo);
+                    if (repositoryQueries.exists(previousState) && repositoryQueries.isValidFileForCompare(previousState)) {
+                        renameDetector.addRemoved(changeLocationTo, previousState);
+                    }
+                } else if (metaData.isCreated() && repositoryQueries.isValidFileForCompare(changeLocationTo)) {
+                    renameDetector.addAdded(changeLocationTo);
+                }
+            }
+            if (!aggregated) {
+                renameDetector.detect();
+            }
+        }
+        renameDetector.detect();
+        return renameDetector;
+    }
+
+    /**
+     * Starts diffing of all modified and renamed files in the background, in the order in which they are rendered (see
+     * {@link #renderRevisions}).
+     */
+    private void prefetchDiffs(@NotNull LineDiffLoader lineDiffLoader, @NotNull RepositoryQueryCache repositoryQueries, @NotNull List<IRevision> revisions, boolean aggregated,
+            @NotNull PathChangeIndex pathChanges, @NotNull RenameDetector renameDetector) {
+        for (IRevision revision : revisions) {
+            for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
+                if (aggregated && metaData.isModified() && pathChanges.wasModifiedAfter(metaData, revision)) {
+                    continue;
+                }
+                ILocation changeLocationTo = metaData.getChangeLocationTo();
+                RenameDetector.Rename rename = metaData.isCreated() ? renameDetector.getRename(changeLocationTo) : null;
+                if (rename != null) {
+                    lineDiffLoader.prefetch(rename.getFrom(), rename.getTo());
+                } else if (metaData.isModified() && !metaData.isCreated() && !metaData.isCopied() && !metaData.isRemoved()) {
+                    if (repositoryQueries.isValidFileForCompare(changeLocationTo)) {
+                        ILocation previousState = aggregated ? getFirstPrevState(metaData, pathChanges) : getPreviousState(changeLocationTo);
+                        lineDiffLoader.prefetch(previousState, changeLocationTo);
                     }
                 }
             }
         }
-        return false;
     }
 
-    private @NotNull ILocation getFirstPrevState(@NotNull ILocationChangeMetaData metaData, @NotNull List<IRevision> allRevisions) {
-        for (IRevision revision : allRevisions) {
-            Collection<ILocationChangeMetaData> locationMetadatas = revision.getChangedLocations();
-            for (ILocationChangeMetaData locMetadata : locationMetadatas) {
-                if (locMetadata.isModified()) {
-                    ILocation changeLocationTo = metaData.getChangeLocationTo().removeRevision();
-                    ILocation changeLocationTo2 = locMetadata.getChangeLocationTo().removeRevision();
-                    if (Objects.equals(changeLocationTo, changeLocationTo2)) {
-                        return getPreviousState(locMetadata.getChangeLocationTo());
+    /**
+     * Renders and sends every file on its own, a file which failed to render is sent as far as it got.
+     */
+    private void renderRevisions(@NotNull PageWriter page, @NotNull IRepositoryReadOnlyConnection connection, @NotNull RepositoryQueryCache repositoryQueries, @NotNull List<IRevision> revisions, @NotNull HtmlTagBuilder fileInfo, @NotNull Parameters parameters,
+            @NotNull LineDiffLoader lineDiffLoader, @NotNull PathChangeIndex pathChanges, @NotNull RenameDetector renameDetector) throws IOException {
+        if (parameters.isAggregatedCompare()) {
+            for (IRevision revision : revisions) {
+                for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
+                    if (metaData.isModified() && pathChanges.wasModifiedAfter(metaData, revision)) {
+                        continue;
+                    }
+                    HtmlFragmentBuilder fileBuilder = page.fragment();
+                    try {
+                        processLocationMetaDataAggregated(fileBuilder, connection, repositoryQueries, metaData, revision, pathChanges, fileInfo, parameters, lineDiffLoader, renameDetector);
+                    } catch (Exception e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                    page.write(fileBuilder);
+                    page.flush();
+                }
+            }
+
+        } else {
+            for (IRevision revision : revisions) {
+                HtmlFragmentBuilder labelBuilder = page.fragment();
+                appendRevisionLabel(labelBuilder, revision);
+                page.write(labelBuilder);
+                for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
+                    HtmlFragmentBuilder fileBuilder = page.fragment();
+                    try {
+                        processLocationMetaData(fileBuilder, connection, repositoryQueries, metaData, revision, fileInfo, parameters, lineDiffLoader, renameDetector);
+                    } catch (Exception e) {
+                        logger.error(e.getMessage(), e);
                     }
+                    page.write(fileBuilder);
+                    page.flush();
                 }
             }
         }
-        return getPreviousState(metaData.getChangeLocationTo());
+    }
+
+    /**
+     * Scripts and styles are referenced with their fingerprints, so the browser caches them until they change.
+     */
+    private @NotNull String createPageHead() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><html><head><title>Code Review</title><link rel=\"shortcut icon\" href=\"/polarion/ria/images/favicon.ico\" />" +
+                "<link rel=\"stylesheet\" href=\"" + staticResources.url("styles/styles.css") + "\" type=\"text/css\">" +
+                " <script src=\"" + staticResources.url("highlight.pack.js") + "\"></script>" +
+                " <script src=\"" + staticResources.url("script.js") + "\"></script>" +
+                " <script src=\"" + staticResources.url("jquery-3.0.0.min.js") + "\"></script>" +
+                " <script src=\"" + staticResources.url("sticky-kit.min.js") + "\"></script>" +
+                "<link href=\"" + staticResources.url("styles/mono-blue.css") + "\" rel=\"stylesheet\" type=\"text/css\">" +
+                "</head><body>";
+    }
+
+    private @NotNull ILocation getFirstPrevState(@NotNull ILocationChangeMetaData metaData, @NotNull PathChangeIndex pathChanges) {
+        return getPreviousState(pathChanges.getFirstModification(metaData));
     }
 
     static int getRevision(@NotNull IRevision revision) {
         return Integer.parseInt(revision.getName());
     }
 
-    private void appendRevisionLabel(@NotNull HtmlTagBuilder container, @NotNull IRevision revision) {
-        HtmlTagBuilder revisionLabel = container.append().tag().div();
+    private void appendRevisionLabel(@NotNull HtmlContentBuilder builder, @NotNull IRevision revision) {
+        HtmlTagBuilder revisionLabel = builder.tag().div();
         revisionLabel.attributes().className("cr_revision_label");
         HtmlTagBuilder revisionLink = revisionLabel.append().tag().a();
         revisionLink.attributes().href(HtmlLinkFactory.fromEncodedRelativeUrl(revision.getViewURL()));
@@ -418,25 +660,25 @@ public class CodeReviewServlet extends HttpServlet {
         }
     }
 
-    private @NotNull HtmlTagBuilder appendMainContainer(@NotNull HtmlFragmentBuilder builder) {
-        HtmlTagBuilder container = builder.tag().div();
-        container.attributes().id("codeReviewContainer").className("cr_main_container");
-        return container;
-    }
-
-    private void processLocationMetaData(@NotNull HtmlContentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision, @NotNull HtmlTagBuilder fileInfo) {
+    private void processLocationMetaData(@NotNull HtmlContentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull RepositoryQueryCache repositoryQueries, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision, @NotNull HtmlTagBuilder fileInfo, @NotNull Parameters parameters, @NotNull LineDiffLoader lineDiffLoader,
+            @NotNull RenameDetector renameDetector) {
         ILocation changeLocationTo = metaData.getChangeLocationTo();
+        if (metaData.isRemoved() && renameDetector.isPairedRemoval(changeLocationTo)) {
+            // shown together with the added file
+            return;
+        }
         HtmlTagBuilder div = builder.tag().div();
         div.attributes().className("change");
         div.attributes().id(createElementIdFromLocation(changeLocationTo));
 
         HtmlContentBuilder boxBuilder = div.append();
-        if (metaData.isCopied() && (metaData.isRemoved() || metaData.isCreated())) {
-            //rename?
-        } else if (metaData.isCreated() || metaData.isCopied()) {
+        RenameDetector.Rename rename = metaData.isCreated() ? renameDetector.getRename(changeLocationTo) : null;
+        if (rename != null) {
+            appendRename(boxBuilder, fileInfo, metaData, revision, rename, parameters, lineDiffLoader);
+        } else if (metaData.isCreated() || (metaData.isCopied() && !metaData.isRemoved())) {
             appendFileInfo(boxBuilder, changeLocationTo, metaData, revision);
             appendFileInfoLite(fileInfo.append(), changeLocationTo, metaData, revision);
-            if (isValidFileForCompare(changeLocationTo, connection)) {
+            if (repositoryQueries.isValidFileForCompare(changeLocationTo)) {
                 appendHTMLContent(boxBuilder, connection, changeLocationTo, true);
             } else {
                 appendNotTextFileWarning(boxBuilder);
@@ -445,8 +687,8 @@ public class CodeReviewServlet extends HttpServlet {
             ILocation previousState = getPreviousState(changeLocationTo);
             appendFileInfo(boxBuilder, previousState, metaData, revision);
             appendFileInfoLite(fileInfo.append(), previousState, metaData, revision);
-            if (connection.exists(previousState)) {
-                if (isValidFileForCompare(previousState, connection)) {
+            if (repositoryQueries.exists(previousState)) {
+                if (repositoryQueries.isValidFileForCompare(previousState)) {
                     appendHTMLContent(boxBuilder, connection, previousState, false);
                 } else {
                     appendNotTextFileWarning(boxBuilder);
@@ -458,27 +700,33 @@ public class CodeReviewServlet extends HttpServlet {
             ILocation previousState = getPreviousState(changeLocationTo);
             appendFileInfo(boxBuilder, changeLocationTo, metaData, revision);
             appendFileInfoLite(fileInfo.append(), changeLocationTo, metaData, revision);
-            if (isValidFileForCompare(changeLocationTo, connection)) {
-                new FileCompareRenderer(connection, boxBuilder).append(previousState, changeLocationTo);
+            if (repositoryQueries.isValidFileForCompare(changeLocationTo)) {
+                appendCompare(boxBuilder, previousState, changeLocationTo, parameters.getDiffContextLines(), parameters, lineDiffLoader);
             } else {
                 appendNotTextFileWarning(boxBuilder);
             }
         }
     }
 
-    private void processLocationMetaDataAggregated(@NotNull HtmlContentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision, @NotNull List<IRevision> allRevisions, @NotNull HtmlTagBuilder fileInfo) {
+    private void processLocationMetaDataAggregated(@NotNull HtmlContentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull RepositoryQueryCache repositoryQueries, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision, @NotNull PathChangeIndex pathChanges, @NotNull HtmlTagBuilder fileInfo, @NotNull Parameters parameters, @NotNull LineDiffLoader lineDiffLoader,
+            @NotNull RenameDetector renameDetector) {
         ILocation changeLocationTo = metaData.getChangeLocationTo();
+        if (metaData.isRemoved() && renameDetector.isPairedRemoval(changeLocationTo)) {
+            // shown together with the added file
+            return;
+        }
         HtmlTagBuilder div = builder.tag().div();
         div.attributes().className("change");
         div.attributes().id(createElementIdFromLocation(changeLocationTo));
 
         HtmlContentBuilder boxBuilder = div.append();
-        if (metaData.isCopied() && (metaData.isRemoved() || metaData.isCreated())) {
-            //rename?
-        } else if (metaData.isCreated() || metaData.isCopied()) {
+        RenameDetector.Rename rename = metaData.isCreated() ? renameDetector.getRename(changeLocationTo) : null;
+        if (rename != null) {
+            appendRename(boxBuilder, fileInfo, metaData, revision, rename, parameters, lineDiffLoader);
+        } else if (metaData.isCreated() || (metaData.isCopied() && !metaData.isRemoved())) {
             appendFileInfo(boxBuilder, changeLocationTo, metaData, revision);
             appendFileInfoLite(fileInfo.append(), changeLocationTo, metaData, revision);
-            if (isValidFileForCompare(changeLocationTo, connection)) {
+            if (repositoryQueries.isValidFileForCompare(changeLocationTo)) {
                 appendHTMLContent(boxBuilder, connection, changeLocationTo, true);
             } else {
                 appendNotTextFileWarning(boxBuilder);
@@ -487,8 +735,8 @@ public class CodeReviewServlet extends HttpServlet {
             ILocation previousState = getPreviousState(changeLocationTo);
             appendFileInfo(boxBuilder, previousState, metaData, revision);
             appendFileInfoLite(fileInfo.append(), previousState, metaData, revision);
-            if (connection.exists(previousState)) {
-                if (isValidFileForCompare(previousState, connection)) {
+            if (repositoryQueries.exists(previousState)) {
+                if (repositoryQueries.isValidFileForCompare(previousState)) {
                     appendHTMLContent(boxBuilder, connection, previousState, false);
                 } else {
                     appendNotTextFileWarning(boxBuilder);
@@ -497,17 +745,45 @@ public class CodeReviewServlet extends HttpServlet {
                 appendFileRemovedDuringCopy(boxBuilder);
             }
         } else if (metaData.isModified()) {
-            ILocation previousState = getFirstPrevState(metaData, allRevisions);
+            ILocation previousState = getFirstPrevState(metaData, pathChanges);
             appendFileInfo(boxBuilder, changeLocationTo, metaData, revision);
             appendFileInfoLite(fileInfo.append(), changeLocationTo, metaData, revision);
-            if (isValidFileForCompare(changeLocationTo, connection)) {
-                new FileCompareRenderer(connection, boxBuilder).append(previousState, changeLocationTo);
+            if (repositoryQueries.isValidFileForCompare(changeLocationTo)) {
+                appendCompare(boxBuilder, previousState, changeLocationTo, parameters.getDiffContextLines(), parameters, lineDiffLoader);
             } else {
                 appendNotTextFileWarning(boxBuilder);
             }
         }
     }
 
+    /**
+     * Renamed (or moved) file shown as a diff of its last state before the removal and the added file.
+     */
+    private void appendRename(@NotNull HtmlContentBuilder boxBuilder, @NotNull HtmlTagBuilder fileInfo, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision, @NotNull RenameDetector.Rename rename,
+            @NotNull Parameters parameters, @NotNull LineDiffLoader lineDiffLoader) {
+        ILocation changeLocationTo = metaData.getChangeLocationTo();
+        appendFileInfo(boxBuilder, changeLocationTo, metaData, revision);
+        appendFileInfoLite(fileInfo.append(), changeLocationTo, metaData, revision);
+        HtmlTagBuilder renamedFrom = boxBuilder.tag().div();
+        renamedFrom.attributes().className("cr_renamed_from");
+        renamedFrom.append().text("Renamed from " + rename.getFrom().getLocationPath() + " (" + rename.getSimilarity() + "% similar)");
+        // only the changes are of interest, not the whole moved file
+        int contextLines = parameters.getDiffContextLines() >= 0 ? parameters.getDiffContextLines() : RENAME_CONTEXT_LINES;
+        appendCompare(boxBuilder, rename.getFrom(), rename.getTo(), contextLines, parameters, lineDiffLoader);
+    }
+
+    /**
+     * Appends the compare of both files, or a placeholder loading it later if the project loads compares lazily.
+     */
+    private void appendCompare(@NotNull HtmlContentBuilder boxBuilder, @NotNull ILocation first, @NotNull ILocation second, int contextLines, @NotNull Parameters parameters, @NotNull LineDiffLoader lineDiffLoader) {
+        FileCompareRenderer renderer = new FileCompareRenderer(boxBuilder, lineDiffLoader, contextLines, parameters.getLongLineLength());
+        if (parameters.isLazyDiffs()) {
+            renderer.appendLazy(first, second, parameters.getWorkItem());
+        } else {
+            renderer.append(first, second);
+        }
+    }
+
     private void appendFileRemovedDuringCopy(@NotNull HtmlContentBuilder builder) {
         builder.tag().div().append().text("File was removed during copy operation.");
     }
@@ -516,18 +792,6 @@ public class CodeReviewServlet extends HttpServlet {
         builder.tag().div().append().text("This is not a text file.");
     }
 
-    private boolean isValidFileForCompare(@NotNull ILocation location, @NotNull IRepositoryReadOnlyConnection connection) {
-        if (connection.isFolder(location)) {
-            return false;
-        }
-        String fileName = location.getLastComponent().toLowerCase();
-        if (fileExtension.matcher(fileName).find() || "readme".equalsIgnoreCase(fileName)) {
-            return true;
-        }
-        String mimeType = connection.getProperty(location, "svn:mime-type");
-        return (mimeType != null) && mimeType.startsWith("text/");
-    }
-
     private void appendFileInfo(@NotNull HtmlContentBuilder builder, @NotNull ILocation changeLocationTo, @NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision) {
         HtmlTagBuilder locationLabel = builder.tag().div();
         locationLabel.attributes().className("cr_file_label");
@@ -584,20 +848,18 @@ public class CodeReviewServlet extends HttpServlet {
         return toRevision;
     }
 
+    /**
+     * Appends the whole content of an added or removed file, the caller has checked the file exists.
+     */
     private void appendHTMLContent(@NotNull HtmlContentBuilder builder, @NotNull IRepositoryReadOnlyConnection connection, @NotNull ILocation location, boolean create) {
-        if (!create && !connection.exists(location)) {
-            builder.tag().div().append().text("File was removed during copy operation.");
-        } else {
-            String content = getStringContent(connection, location);
-            HtmlTagBuilder compareContainer = builder.tag().div();
-            compareContainer.attributes().className("cr_file_content " + (create ? "cr_file_content_add" : "cr_file_content_delete"));
-
-            HtmlTagBuilder pre = compareContainer.append().tag().pre();
-            HtmlTagBuilder code = pre.append().tag().byName("code");
-            appendStyle(location, code);
-            code.append().text(content);
+        String content = getStringContent(connection, location);
+        HtmlTagBuilder compareContainer = builder.tag().div();
+        compareContainer.attributes().className("cr_file_content " + (create ? "cr_file_content_add" : "cr_file_content_delete"));
 
-        }
+        HtmlTagBuilder pre = compareContainer.append().tag().pre();
+        HtmlTagBuilder code = pre.append().tag().byName("code");
+        appendStyle(location, code);
+        code.append().text(content);
     }
 
     static void appendStyle(@NotNull ILocation first, @NotNull HtmlTagBuilder code) {
@@ -621,6 +883,15 @@ public class CodeReviewServlet extends HttpServlet {
         return result;
     }
 
+    static @NotNull TokenizedText getTokenizedContent(@NotNull IRepositoryReadOnlyConnection connection, @NotNull ILocation location, @NotNull TokenTable tokenTable) {
+        try {
+            return LineTokenizer.tokenize(connection.getContent(location), StandardCharsets.UTF_8, tokenTable);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return LineTokenizer.tokenize("", tokenTable);
+        }
+    }
+
     static @NotNull String escapeHTML(@NotNull String str) {
         return str.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
     }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.polarion.alm.extensions.codereview.diff.EditScript;
+import com.polarion.alm.extensions.codereview.diff.LineDiff;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.core.util.logging.Logger;
+import com.polarion.subterra.base.location.ILocation;
+
+/**
+ * Process wide cache of computed line diffs. The content of a path at a given revision never changes,
+ * so diffs between two revisions can be shared by all requests (regular, aggregated and compare views).
+ * Only the {@link EditScript}s are cached, not the compared texts: every request reads the texts itself, as its user,
+ * so a cached diff is never shown to a user who cannot read the files. The cache is bounded by the estimated size of the
+ * edit scripts, least recently used entries are evicted first. The size (in MB) can be set by the
+ * {@value #PROPERTY_SIZE} system property.
+ * A diff requested while the same diff is being computed for another request waits for that computation (for a
+ * limited time) instead of computing it again.
+ */
+@SuppressWarnings("nls")
+public final class DiffCache {
+
+    private static final Logger logger = Logger.getLogger(DiffCache.class);
+
+    static final String PROPERTY_SIZE = "com.polarion.alm.extensions.codereview.diffCacheSize";
+    private static final long DEFAULT_SIZE_MB = 64;
+    private static final long IN_FLIGHT_TIMEOUT = 30000;
+
+    private static final DiffCache instance = new DiffCache(Long.getLong(PROPERTY_SIZE, DEFAULT_SIZE_MB) * 1024 * 1024);
+
+    private final long maxWeight;
+    private final Map<Key, EditScript> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final ConcurrentMap<Key, FutureTask<LineDiff>> inFlight = new ConcurrentHashMap<>();
+
+    DiffCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public static @NotNull DiffCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param first text of the first file, read by the current user
+     * @param second text of the second file, read by the current user
+     * @param computation computes the diff of the two texts
+     * @return diff of the texts restored from the cached edit script for the key or computed by the given computation
+     *         (its edit script is cached then)
+     */
+    public @NotNull LineDiff get(@Nullable Key key, @NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull Supplier<LineDiff> computation) {
+        if (key == null) {
+            return computation.get();
+        }
+        EditScript cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        LineDiff lineDiff = cached != null ? LineDiff.of(first, second, cached) : null;
+        if (lineDiff != null) {
+            return lineDiff;
+        }
+        FutureTask<LineDiff> task = new FutureTask<>(computation::get);
+        FutureTask<LineDiff> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            LineDiff runningDiff = awaitRunning(running);
+            lineDiff = runningDiff != null && !runningDiff.isDegraded() ? LineDiff.of(first, second, runningDiff.editScript()) : null;
+            return lineDiff != null ? lineDiff : computation.get();
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        lineDiff = getResult(task);
+        if (!lineDiff.isDegraded()) {
+            // degraded diffs depend on the time budget of the request which computed them
+            put(key, lineDiff.editScript());
+        }
+        return lineDiff;
+    }
+
+    /**
+     * @return result of the computation of another request, null if it failed or took too long
+     */
+    private static @Nullable LineDiff awaitRunning(@NotNull FutureTask<LineDiff> running) {
+        try {
+            return running.get(IN_FLIGHT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // computed again by the caller
+        }
+        return null;
+    }
+
+    private static @NotNull LineDiff getResult(@NotNull FutureTask<LineDiff> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            // the task has run already
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private synchronized void put(@NotNull Key key, @NotNull EditScript editScript) {
+        long entryWeight = editScript.estimateSize();
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        EditScript previous = entries.put(key, editScript);
+        if (previous != null) {
+            weight -= previous.estimateSize();
+        }
+        weight += entryWeight;
+        Iterator<EditScript> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().estimateSize();
+            iterator.remove();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Diff cache: " + this);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.size() + " entries, " + weight + "/" + maxWeight + " bytes";
+    }
+
+    /**
+     * @return key for the diff of the given locations or null if they do not point to fixed revisions
+     */
+    public static @Nullable Key key(@NotNull ILocation first, @NotNull ILocation second, @NotNull String variant) {
+        if (first.getRevision() == null || second.getRevision() == null) {
+            return null;
+        }
+        return new Key(first, second, variant);
+    }
+
+    public static final class Key {
+
+        private final @Nullable String repository;
+        private final @Nullable String firstPath;
+        private final @NotNull String firstRevision;
+        private final @Nullable String secondPath;
+        private final @NotNull String secondRevision;
+        private final @NotNull String variant;
+
+        private Key(@NotNull ILocation first, @NotNull ILocation second, @NotNull String variant) {
+            repository = first.getRepositoryName();
+            firstPath = first.getLocationPath();
+            firstRevision = Objects.requireNonNull(first.getRevision());
+            secondPath = second.getLocationPath();
+            secondRevision = Objects.requireNonNull(second.getRevision());
+            this.variant = variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repository, firstPath, firstRevision, secondPath, secondRevision, variant);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(repository, other.repository) && Objects.equals(firstPath, other.firstPath) && firstRevision.equals(other.firstRevision)
+                    && Objects.equals(secondPath, other.secondPath) && secondRevision.equals(other.secondRevision) && variant.equals(other.variant);
+        }
+
+    }
+
+}
@@ -15,35 +15,87 @@
  */
 package com.polarion.alm.extensions.codereview;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import com.polarion.alm.extensions.codereview.TextDiffMatchPatch.Diff;
+import com.polarion.alm.extensions.codereview.diff.DiffBudget;
+import com.polarion.alm.extensions.codereview.diff.EditScript;
+import com.polarion.alm.extensions.codereview.diff.LineDiff;
+import com.polarion.alm.extensions.codereview.diff.MyersDiffAlgorithm;
+import com.polarion.alm.extensions.codereview.diff.TokenTable;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.alm.extensions.codereview.diff.WordTokenizer;
 import com.polarion.alm.shared.api.utils.html.HtmlContentBuilder;
 import com.polarion.alm.shared.api.utils.html.HtmlTagBuilder;
-import com.polarion.platform.service.repository.IRepositoryReadOnlyConnection;
+import com.polarion.alm.tracker.model.IWorkItem;
+import com.polarion.core.util.logging.Logger;
 import com.polarion.subterra.base.location.ILocation;
 
 @SuppressWarnings("nls")
 public class FileCompareRenderer {
 
-    @NotNull
-    private final IRepositoryReadOnlyConnection connection;
+    private static final Logger logger = Logger.getLogger(FileCompareRenderer.class);
+
+    private static final AtomicLong degradedDiffs = new AtomicLong();
+
+    private static final String INSERT_START = "<span class=\"change\" style=\"background:#e6ffe6;\">";
+    private static final String DELETE_START = "<span class=\"change\" style=\"background:#ffe6e6;\">";
+
+    // word diffs are only offered for changes with up to this number of line pairs, of lines up to this length
+    private static final int MAX_WORD_DIFF_PAIRS = 100;
+    private static final int MAX_WORD_DIFF_LINE_LENGTH = 10000;
+    // unchanged characters of a long line kept before and after every change
+    private static final int LONG_LINE_CONTEXT = 80;
+
     @NotNull
     private final HtmlContentBuilder builder;
+    @NotNull
+    private final LineDiffLoader lineDiffLoader;
+    private final int contextLines;
+    private final int longLineLength;
 
-    public FileCompareRenderer(@NotNull IRepositoryReadOnlyConnection connection, @NotNull HtmlContentBuilder builder) {
-        this.connection = connection;
+    /**
+     * @param contextLines number of unchanged lines shown around every change, the remaining unchanged lines are collapsed
+     *            into placeholders loaded on demand; negative value shows whole files
+     * @param longLineLength changed lines longer than this are compared at word and punctuation level right away and
+     *            only the changed parts are shown with some context, long lines without a counterpart are cut at this
+     *            length; 0 or negative value disables it
+     */
+    public FileCompareRenderer(@NotNull HtmlContentBuilder builder, @NotNull LineDiffLoader lineDiffLoader, int contextLines, int longLineLength) {
         this.builder = builder;
+        this.lineDiffLoader = lineDiffLoader;
+        this.contextLines = contextLines;
+        this.longLineLength = longLineLength;
+    }
+
+    /**
+     * @return number of diffs approximated because of an exhausted time budget since the start
+     */
+    public static long getDegradedDiffs() {
+        return degradedDiffs.get();
     }
 
     public void append(@NotNull ILocation first, @NotNull ILocation second) {
-        String firstContent = CodeReviewServlet.getStringContent(connection, first);
-        String secondContent = CodeReviewServlet.getStringContent(connection, second);
+        LineDiff lineDiff = lineDiffLoader.get(first, second);
+        if (lineDiff.isDegraded()) {
+            DiffBudget diffBudget = lineDiffLoader.getDiffBudget();
+            degradedDiffs.incrementAndGet();
+            logger.warn("Diff of " + second.getLocationPath() + " (" + first.getRevision() + ":" + second.getRevision() + ") is approximated, time budget of " + diffBudget.getTotalMillis() + "ms exhausted ("
+                    + diffBudget.getUsedMillis() + "ms used), " + degradedDiffs.get() + " approximated diffs so far");
+            HtmlTagBuilder warning = builder.tag().div();
+            warning.attributes().className("cr_diff_degraded");
+            warning.append().text("The file took too long to compare, the changes shown are approximate.");
+        }
         HtmlTagBuilder compareContainer = builder.tag().div();
         compareContainer.attributes().className("cr_file_content cr_file_content_modify");
-        String compareFiles = compareFiles(firstContent, secondContent);
+        String compareFiles = compareFiles(lineDiff, first, second);
 
         HtmlTagBuilder pre = compareContainer.append().tag().pre();
         HtmlTagBuilder code = pre.append().tag().byName("code");
@@ -51,32 +103,364 @@ public class FileCompareRenderer {
         code.append().html(compareFiles);
     }
 
-    private String compareFiles(@NotNull String first, @NotNull String second) {
-        TextDiffMatchPatch textDiffMatchPatch = new TextDiffMatchPatch();
+    /**
+     * Appends a placeholder instead of the compared files, the page script loads the compare from the compare endpoint
+     * once the placeholder gets near the visible part of the page. The endpoint takes the diff settings from the
+     * configuration of the project of the work item, only the whitespace mode chosen on the page is passed.
+     */
+    public void appendLazy(@NotNull ILocation first, @NotNull ILocation second, @NotNull IWorkItem workItem) {
+        try {
+            String url = createCompareUrl(second, first.getRevision(), second.getRevision(), first.getLocationPath()).append('&').append(CodeReviewServlet.PARAM_FRAGMENT).append("=true&")
+                    .append(Parameters.PARAM_PROJECT_ID).append('=').append(URLEncoder.encode(workItem.getProjectId(), StandardCharsets.UTF_8.name())).append('&')
+                    .append(CodeReviewServlet.PARAM_WORK_ITEM).append('=').append(URLEncoder.encode(workItem.getId(), StandardCharsets.UTF_8.name())).append('&')
+                    .append(Parameters.PARAM_WHITESPACE).append('=').append(lineDiffLoader.getWhitespaceMode()).toString();
+            builder.html("<div class=\"cr_lazy\" data-src=\"" + CodeReviewServlet.escapeHTML(url) + "\"></div>");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String compareFiles(@NotNull LineDiff lineDiff, @NotNull ILocation first, @NotNull ILocation second) {
+        TokenizedText firstText = lineDiff.first();
+        TokenizedText secondText = lineDiff.second();
+        int firstSize = firstText.size();
+        int secondSize = secondText.size();
+        // every line is closed by '\n' except the very last one if none of the texts ends with a line terminator
+        boolean lastLineTerminated = (firstSize > 0 && firstText.hasTerminator(firstSize - 1)) || (secondSize > 0 && secondText.hasTerminator(secondSize - 1));
+        StringBuilder html = new StringBuilder();
+        EditScript editScript = lineDiff.editScript();
+        for (int k = 0; k < editScript.size(); k++) {
+            int i = editScript.firstStart(k);
+            int firstEnd = editScript.firstEnd(k);
+            int j = editScript.secondStart(k);
+            int secondEnd = editScript.secondEnd(k);
+            if (editScript.operation(k) == EditScript.EQUAL) {
+                appendUnchanged(html, secondText, j, secondEnd, lastLineTerminated || firstEnd < firstSize || secondEnd < secondSize, second);
+            } else {
+                int pairs = Math.min(firstEnd - i, secondEnd - j);
+                if (hasLongLine(firstText, i, firstEnd) || hasLongLine(secondText, j, secondEnd)) {
+                    // sending whole long lines (minified or generated files) would be too much, only their changed parts are rendered
+                    appendChangedLines(html, lineDiff.first(), lineDiff.second(), i, firstEnd, j, secondEnd, true, longLineLength, lineDiffLoader.getDiffBudget());
+                } else if (pairs > 0 && pairs <= MAX_WORD_DIFF_PAIRS) {
+                    // deleted and inserted lines can be compared word by word, loaded on demand
+                    String url = createCompareUrl(second, first.getRevision(), second.getRevision(), first.getLocationPath()).append("&wordDiff=").append(i).append(',').append(firstEnd).append(',').append(j).append(',')
+                            .append(secondEnd).toString();
+                    html.append("<span class=\"cr_hunk\" data-words=\"").append(CodeReviewServlet.escapeHTML(url)).append("\">");
+                    appendChangedLines(html, lineDiff.first(), lineDiff.second(), i, firstEnd, j, secondEnd, false, 0, null);
+                    html.append("</span>");
+                } else {
+                    appendChangedLines(html, lineDiff.first(), lineDiff.second(), i, firstEnd, j, secondEnd, false, 0, null);
+                }
+            }
+        }
+        return html.toString();
+    }
+
+    private boolean hasLongLine(@NotNull TokenizedText text, int start, int end) {
+        if (longLineLength <= 0) {
+            return false;
+        }
+        for (int line = start; line < end; line++) {
+            if (isLongLine(text, line, longLineLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLongLine(@NotNull TokenizedText text, int line, int longLineLength) {
+        return longLineLength > 0 && text.contentEnd(line) - text.lineStart(line) > longLineLength;
+    }
 
-        first = first.replace("\n", "\r\n").replace("\r\r", "\r");
-        second = second.replace("\n", "\r\n").replace("\r\r", "\r");
+    private void appendUnchanged(@NotNull StringBuilder html, @NotNull TokenizedText text, int start, int end, boolean terminateLast, @NotNull ILocation location) {
+        int collapseStart = start > 0 ? Math.min(end, start + contextLines) : start;
+        int collapseEnd = end < text.size() ? Math.max(collapseStart, end - contextLines) : end;
+        if (collapseEnd == text.size() && collapseEnd > collapseStart && terminateLast != text.hasTerminator(collapseEnd - 1)) {
+            // renderLines() would not terminate the last line the same way, keep it visible
+            collapseEnd--;
+        }
+        if (contextLines < 0 || collapseStart == collapseEnd) {
+            appendLines(html, text, start, end, terminateLast);
+            return;
+        }
+        appendLines(html, text, start, collapseStart, true);
+        html.append("<span class=\"cr_collapsed\" data-lines=\"").append(collapseEnd - collapseStart).append("\" data-src=\"")
+                .append(CodeReviewServlet.escapeHTML(createCompareUrl(location, location.getRevision(), null, null).append("&fromLine=").append(collapseStart).append("&toLine=").append(collapseEnd).toString()))
+                .append("\"></span>");
+        appendLines(html, text, collapseEnd, end, terminateLast);
+    }
 
-        List<Diff> diffs = textDiffMatchPatch.diffMainAtLineLevel(first, second);
+    /**
+     * @param fromPath path of the first file if the file was renamed
+     * @return URL of the compare endpoint for the path of the given location, further parameters can be appended
+     */
+    private static @NotNull StringBuilder createCompareUrl(@NotNull ILocation location, @NotNull String revision, @Nullable String revision2, @Nullable String fromPath) {
+        StringBuilder url = new StringBuilder("/polarion/codereview/compare");
+        try {
+            for (String segment : location.getLocationPath().split("/")) {
+                if (!segment.isEmpty()) {
+                    url.append('/').append(URLEncoder.encode(segment, StandardCharsets.UTF_8.name()));
+                }
+            }
+            url.append("?revision=").append(URLEncoder.encode(revision, StandardCharsets.UTF_8.name()));
+            if (revision2 != null) {
+                url.append("&revision2=").append(URLEncoder.encode(revision2, StandardCharsets.UTF_8.name()));
+            }
+            if (fromPath != null && !fromPath.equals(location.getLocationPath())) {
+                url.append("&fromPath=").append(URLEncoder.encode(fromPath, StandardCharsets.UTF_8.name()));
+            }
+            String repositoryName = location.getRepositoryName();
+            if (repositoryName != null) {
+                url.append("&repository=").append(URLEncoder.encode(repositoryName, StandardCharsets.UTF_8.name()));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return url;
+    }
+
+    /**
+     * The line ranges are taken from the rendered page, the files do not need to be diffed again.
+     *
+     * @param diffBudget time budget of the request, the time spent on the word diffs is subtracted from it
+     * @return HTML of the deleted lines [firstStart, firstEnd) and inserted lines [secondStart, secondEnd) of one change
+     *         with the changed words of line pairs (first deleted with first inserted line and so on) highlighted
+     */
+    public static @NotNull String renderWordDiff(@NotNull TokenizedText firstText, @NotNull TokenizedText secondText, int firstStart, int firstEnd, int secondStart, int secondEnd,
+            @NotNull DiffBudget diffBudget) {
         StringBuilder html = new StringBuilder();
-        for (Diff aDiff : diffs) {
-            String text = aDiff.getText();
-            text = CodeReviewServlet.escapeHTML(text).replace("\r", "\n");
-            switch (aDiff.getOperation()) {
-            case INSERT:
-                html.append("<span class=\"change\" style=\"background:#e6ffe6;\">").append(text)
-                        .append("</span>");
+        firstEnd = Math.min(firstEnd, firstText.size());
+        secondEnd = Math.min(secondEnd, secondText.size());
+        appendChangedLines(html, firstText, secondText, Math.min(firstStart, firstEnd), firstEnd, Math.min(secondStart, secondEnd), secondEnd, true, 0, diffBudget);
+        return html.toString();
+    }
+
+    /**
+     * @param wordDiff true if the line pairs are compared word by word, then the diffBudget is needed
+     * @param longLineLength lines longer than this are shortened, see the constructor
+     */
+    private static void appendChangedLines(@NotNull StringBuilder html, @NotNull TokenizedText firstText, @NotNull TokenizedText secondText, int firstStart, int firstEnd, int secondStart,
+            int secondEnd, boolean wordDiff, int longLineLength, @Nullable DiffBudget diffBudget) {
+        int firstSize = firstText.size();
+        int secondSize = secondText.size();
+        boolean lastLineTerminated = (firstSize > 0 && firstText.hasTerminator(firstSize - 1)) || (secondSize > 0 && secondText.hasTerminator(secondSize - 1));
+        int pairs = wordDiff && diffBudget != null ? Math.min(Math.min(firstEnd - firstStart, secondEnd - secondStart), MAX_WORD_DIFF_PAIRS) : 0;
+        List<LineDiff> wordDiffs = new ArrayList<>(pairs);
+        // the word diffs draw from the budget of the request, the Myers diff falls back to unique words once it is exhausted
+        for (int k = 0; k < pairs; k++) {
+            boolean longLine = isLongLine(firstText, firstStart + k, longLineLength) || isLongLine(secondText, secondStart + k, longLineLength);
+            wordDiffs.add(longLine ? diffLongLines(firstText, firstStart + k, secondText, secondStart + k, diffBudget)
+                    : diffWords(firstText, firstStart + k, secondText, secondStart + k, diffBudget));
+        }
+        if (firstStart < firstEnd) {
+            html.append(DELETE_START);
+            for (int line = firstStart; line < firstEnd; line++) {
+                boolean terminate = lastLineTerminated || line + 1 < firstSize || secondStart < secondSize;
+                LineDiff words = line - firstStart < pairs ? wordDiffs.get(line - firstStart) : null;
+                if (words != null) {
+                    appendWords(html, words, firstText, line, true, isLongLine(firstText, line, longLineLength), terminate);
+                } else {
+                    appendLine(html, firstText, line, longLineLength, terminate);
+                }
+            }
+            html.append("</span>");
+        }
+        if (secondStart < secondEnd) {
+            html.append(INSERT_START);
+            for (int line = secondStart; line < secondEnd; line++) {
+                boolean terminate = lastLineTerminated || firstEnd < firstSize || line + 1 < secondSize;
+                LineDiff words = line - secondStart < pairs ? wordDiffs.get(line - secondStart) : null;
+                if (words != null) {
+                    appendWords(html, words, secondText, line, false, isLongLine(secondText, line, longLineLength), terminate);
+                } else {
+                    appendLine(html, secondText, line, longLineLength, terminate);
+                }
+            }
+            html.append("</span>");
+        }
+    }
+
+    /**
+     * Diffs the words and separators of the two lines (see {@link WordTokenizer}), the word tokens point directly into
+     * the texts of the files.
+     *
+     * @return word diff of the two lines or null if they are too long or have nothing in common
+     */
+    private static @Nullable LineDiff diffWords(@NotNull TokenizedText firstText, int firstLine, @NotNull TokenizedText secondText, int secondLine, @NotNull DiffBudget diffBudget) {
+        int firstLength = firstText.contentEnd(firstLine) - firstText.lineStart(firstLine);
+        int secondLength = secondText.contentEnd(secondLine) - secondText.lineStart(secondLine);
+        if (firstLength > MAX_WORD_DIFF_LINE_LENGTH || secondLength > MAX_WORD_DIFF_LINE_LENGTH) {
+            return null;
+        }
+        TokenTable table = new TokenTable();
+        TokenizedText first = WordTokenizer.tokenize(firstText.text(), firstText.lineStart(firstLine), firstText.contentEnd(firstLine), table);
+        TokenizedText second = WordTokenizer.tokenize(secondText.text(), secondText.lineStart(secondLine), secondText.contentEnd(secondLine), table);
+        LineDiff words = LineDiff.compute(first, second, new MyersDiffAlgorithm(), diffBudget).cleanupSemanticLossless();
+        EditScript script = words.editScript();
+        for (int i = 0; i < script.size(); i++) {
+            if (script.operation(i) == EditScript.EQUAL && !isBlank(first, script.firstStart(i), script.firstEnd(i))) {
+                return words;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Diffs long lines in time proportional to the size of the change: the common prefix and suffix are skipped
+     * character by character, only the rest is tokenized at word and punctuation boundaries and diffed.
+     */
+    private static @NotNull LineDiff diffLongLines(@NotNull TokenizedText firstText, int firstLine, @NotNull TokenizedText secondText, int secondLine, @NotNull DiffBudget diffBudget) {
+        CharSequence firstChars = firstText.text();
+        CharSequence secondChars = secondText.text();
+        int firstStart = firstText.lineStart(firstLine);
+        int firstEnd = firstText.contentEnd(firstLine);
+        int secondStart = secondText.lineStart(secondLine);
+        int secondEnd = secondText.contentEnd(secondLine);
+        int prefix = 0;
+        while (firstStart + prefix < firstEnd && secondStart + prefix < secondEnd && firstChars.charAt(firstStart + prefix) == secondChars.charAt(secondStart + prefix)) {
+            prefix++;
+        }
+        // do not split a word, it would be shown as changed only partially
+        while (prefix > 0 && WordTokenizer.isWordCharacter(firstChars.charAt(firstStart + prefix - 1))) {
+            prefix--;
+        }
+        firstStart += prefix;
+        secondStart += prefix;
+        int suffix = 0;
+        while (firstEnd - suffix > firstStart && secondEnd - suffix > secondStart && firstChars.charAt(firstEnd - suffix - 1) == secondChars.charAt(secondEnd - suffix - 1)) {
+            suffix++;
+        }
+        while (suffix > 0 && WordTokenizer.isWordCharacter(firstChars.charAt(firstEnd - suffix))) {
+            suffix--;
+        }
+        firstEnd -= suffix;
+        secondEnd -= suffix;
+        TokenTable table = new TokenTable();
+        TokenizedText first = WordTokenizer.tokenizeAtPunctuation(firstChars, firstStart, firstEnd, table);
+        TokenizedText second = WordTokenizer.tokenizeAtPunctuation(secondChars, secondStart, secondEnd, table);
+        return LineDiff.compute(first, second, new MyersDiffAlgorithm(), diffBudget).cleanupSemanticLossless();
+    }
+
+    private static boolean isBlank(@NotNull TokenizedText words, int start, int end) {
+        CharSequence chars = words.text();
+        for (int k = words.lineStart(start); k < words.contentEnd(end - 1); k++) {
+            if (chars.charAt(k) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the line with its changed words highlighted, the words may cover only a part of the line, the rest is
+     * unchanged. Long unchanged parts of long lines are shortened to some context around the changes.
+     */
+    private static void appendWords(@NotNull StringBuilder html, @NotNull LineDiff words, @NotNull TokenizedText lineText, int line, boolean firstSide, boolean longLine, boolean terminate) {
+        TokenizedText text = firstSide ? words.first() : words.second();
+        CharSequence chars = lineText.text();
+        int lineStart = lineText.lineStart(line);
+        int lineEnd = lineText.contentEnd(line);
+        int unchangedStart = lineStart;
+        EditScript script = words.editScript();
+        for (int i = 0; i < script.size(); i++) {
+            int start = firstSide ? script.firstStart(i) : script.secondStart(i);
+            int end = firstSide ? script.firstEnd(i) : script.secondEnd(i);
+            if (start == end || script.operation(i) == EditScript.EQUAL) {
+                continue;
+            }
+            int charStart = text.lineStart(start);
+            appendUnchangedWords(html, chars, unchangedStart, charStart, longLine && unchangedStart > lineStart, longLine);
+            html.append(firstSide ? "<span class=\"cr_word_delete\">" : "<span class=\"cr_word_insert\">");
+            unchangedStart = text.contentEnd(end - 1);
+            appendEscaped(html, chars, charStart, unchangedStart);
+            html.append("</span>");
+        }
+        appendUnchangedWords(html, chars, unchangedStart, lineEnd, longLine, longLine && unchangedStart == lineStart);
+        if (terminate) {
+            html.append('\n');
+        }
+    }
+
+    /**
+     * @param keepStart true if LONG_LINE_CONTEXT characters at the start are kept, false if the whole range is shown
+     * @param keepEnd true if LONG_LINE_CONTEXT characters at the end are kept
+     */
+    private static void appendUnchangedWords(@NotNull StringBuilder html, @NotNull CharSequence chars, int start, int end, boolean keepStart, boolean keepEnd) {
+        if (!keepStart && !keepEnd) {
+            appendEscaped(html, chars, start, end);
+            return;
+        }
+        int headEnd = keepStart ? start + LONG_LINE_CONTEXT : start;
+        int tailStart = keepEnd ? end - LONG_LINE_CONTEXT : end;
+        if (headEnd + LONG_LINE_CONTEXT >= tailStart) {
+            appendEscaped(html, chars, start, end);
+            return;
+        }
+        appendEscaped(html, chars, start, headEnd);
+        html.append("<span class=\"cr_ellipsis\" title=\"").append(tailStart - headEnd).append(" unchanged characters\">&hellip;</span>");
+        appendEscaped(html, chars, tailStart, end);
+    }
+
+    /**
+     * @return HTML escaped lines [fromLine, toLine) of the text, each one followed by '\n' unless it is the last line of
+     *         a text without final line terminator
+     */
+    public static @NotNull String renderLines(@NotNull TokenizedText text, int fromLine, int toLine) {
+        StringBuilder html = new StringBuilder();
+        int end = Math.min(toLine, text.size());
+        appendLines(html, text, Math.max(0, fromLine), end, end > 0 && text.hasTerminator(end - 1));
+        return html.toString();
+    }
+
+    private static void appendLines(@NotNull StringBuilder html, @NotNull TokenizedText text, int start, int end, boolean terminateLast) {
+        for (int line = start; line < end; line++) {
+            appendLine(html, text, line, terminateLast || line + 1 < end);
+        }
+    }
+
+    private static void appendLine(@NotNull StringBuilder html, @NotNull TokenizedText text, int line, boolean terminate) {
+        appendLine(html, text, line, 0, terminate);
+    }
+
+    /**
+     * Appends the line, a line longer than longLineLength only with its first longLineLength characters.
+     */
+    private static void appendLine(@NotNull StringBuilder html, @NotNull TokenizedText text, int line, int longLineLength, boolean terminate) {
+        CharSequence chars = text.text();
+        int start = text.lineStart(line);
+        int end = text.contentEnd(line);
+        if (isLongLine(text, line, longLineLength)) {
+            int cut = start + longLineLength;
+            if (Character.isHighSurrogate(chars.charAt(cut - 1))) {
+                cut--;
+            }
+            appendEscaped(html, chars, start, cut);
+            html.append("<span class=\"cr_ellipsis\" title=\"").append(end - cut).append(" more characters\">&hellip;</span>");
+        } else {
+            appendEscaped(html, chars, start, end);
+        }
+        if (terminate) {
+            html.append('\n');
+        }
+    }
+
+    private static void appendEscaped(@NotNull StringBuilder html, @NotNull CharSequence chars, int start, int end) {
+        for (int k = start; k < end; k++) {
+            char c = chars.charAt(k);
+            switch (c) {
+            case '&':
+                html.append("&amp;");
                 break;
-            case DELETE:
-                html.append("<span class=\"change\" style=\"background:#ffe6e6;\">").append(text)
-                        .append("</span>");
+            case '<':
+                html.append("&lt;");
                 break;
-            case EQUAL:
-                html.append(text);
+            case '>':
+                html.append("&gt;");
                 break;
+            default:
+                html.append(c);
             }
         }
-        return html.toString();
     }
 
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.polarion.alm.extensions.codereview.diff.DiffAlgorithmType;
+import com.polarion.alm.extensions.codereview.diff.DiffBudget;
+import com.polarion.alm.extensions.codereview.diff.LineDiff;
+import com.polarion.alm.extensions.codereview.diff.TokenTable;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.alm.extensions.codereview.diff.WhitespaceMode;
+import com.polarion.platform.security.ISecurityService;
+import com.polarion.platform.service.repository.IRepositoryReadOnlyConnection;
+import com.polarion.subterra.base.location.ILocation;
+
+/**
+ * Loads (and diffs) the compared files of one request. Diffs announced by {@link #prefetch(ILocation, ILocation)} are
+ * computed ahead on a process wide pool, at most {@value #PROPERTY_FAN_OUT} of them at a time per request, while the
+ * page is still rendered in the original order on the request thread. All diffs of the request draw from one
+ * {@link DiffBudget}, diffs running in parallel do not get the remaining time each.
+ * The pool size is set by the {@value #PROPERTY_THREADS} system property (0 disables prefetching).
+ */
+@SuppressWarnings("nls")
+public final class LineDiffLoader {
+
+    static final String PROPERTY_THREADS = "com.polarion.alm.extensions.codereview.diffThreads";
+    static final String PROPERTY_FAN_OUT = "com.polarion.alm.extensions.codereview.diffFanOut";
+    private static final int DEFAULT_FAN_OUT = 8;
+
+    private static final @Nullable ExecutorService executor = createExecutor(Integer.getInteger(PROPERTY_THREADS, Runtime.getRuntime().availableProcessors()));
+    private static final int fanOut = Math.max(1, Integer.getInteger(PROPERTY_FAN_OUT, DEFAULT_FAN_OUT));
+
+    private final @NotNull IRepositoryReadOnlyConnection connection;
+    private final @NotNull DiffAlgorithmType diffAlgorithm;
+    private final @NotNull WhitespaceMode whitespaceMode;
+    private final @NotNull DiffBudget diffBudget;
+    private final @NotNull ISecurityService securityService;
+
+    private final @NotNull List<FutureTask<LineDiff>> tasks = new ArrayList<>();
+    private final @NotNull Map<List<ILocation>, Integer> taskIndexes = new HashMap<>();
+    private int submitted;
+
+    public LineDiffLoader(@NotNull IRepositoryReadOnlyConnection connection, @NotNull DiffAlgorithmType diffAlgorithm, @NotNull WhitespaceMode whitespaceMode, @NotNull DiffBudget diffBudget,
+            @NotNull ISecurityService securityService) {
+        this.connection = connection;
+        this.diffAlgorithm = diffAlgorithm;
+        this.whitespaceMode = whitespaceMode;
+        this.diffBudget = diffBudget;
+        this.securityService = securityService;
+    }
+
+    private static @Nullable ExecutorService createExecutor(int threads) {
+        if (threads <= 0) {
+            return null;
+        }
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codereview-diff-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public @NotNull DiffBudget getDiffBudget() {
+        return diffBudget;
+    }
+
+    public @NotNull DiffAlgorithmType getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    public @NotNull WhitespaceMode getWhitespaceMode() {
+        return whitespaceMode;
+    }
+
+    /**
+     * Announces that the diff of the given locations will be needed, diffs should be requested in the same order.
+     */
+    public void prefetch(@NotNull ILocation first, @NotNull ILocation second) {
+        if (executor == null || taskIndexes.putIfAbsent(Arrays.asList(first, second), tasks.size()) != null) {
+            // a diff announced twice is computed once, the second get() finds it in the DiffCache
+            return;
+        }
+        Subject subject = securityService.getCurrentSubject();
+        tasks.add(new FutureTask<>(() -> securityService.doAsUser(subject, (PrivilegedAction<LineDiff>) () -> load(first, second))));
+        submit(fanOut);
+    }
+
+    private void submit(int until) {
+        ExecutorService executor = LineDiffLoader.executor;
+        if (executor == null) {
+            return;
+        }
+        while (submitted < tasks.size() && submitted < until) {
+            FutureTask<LineDiff> task = tasks.get(submitted++);
+            // null if get() took the task before its turn came
+            if (task != null) {
+                executor.execute(task);
+            }
+        }
+    }
+
+    public @NotNull LineDiff get(@NotNull ILocation first, @NotNull ILocation second) {
+        Integer index = taskIndexes.remove(Arrays.asList(first, second));
+        if (index != null) {
+            FutureTask<LineDiff> task = tasks.set(index, null);
+            submit(index + 1 + fanOut);
+            // runs the diff right here if no worker started it yet
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                // fails like load() on the request thread would, the diff is not computed a second time
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException("Prefetching of diff " + first + " - " + second + " failed", cause);
+            }
+        }
+        return load(first, second);
+    }
+
+    /**
+     * Cancels diffs which were prefetched but not requested.
+     */
+    public void cancel() {
+        for (Integer index : taskIndexes.values()) {
+            tasks.get(index).cancel(false);
+        }
+        taskIndexes.clear();
+    }
+
+    private @NotNull LineDiff load(@NotNull ILocation first, @NotNull ILocation second) {
+        // runs as the requesting user, reading the files checks the access even if the diff itself is cached
+        TokenTable tokenTable = new TokenTable(whitespaceMode);
+        TokenizedText firstContent = CodeReviewServlet.getTokenizedContent(connection, first, tokenTable);
+        TokenizedText secondContent = CodeReviewServlet.getTokenizedContent(connection, second, tokenTable);
+        return DiffCache.getInstance().get(DiffCache.key(first, second, diffAlgorithm.name() + "/" + whitespaceMode.name()), firstContent, secondContent,
+                () -> new TextDiffMatchPatch().diffLineTokens(firstContent, secondContent, diffAlgorithm, diffBudget));
+    }
+
+}
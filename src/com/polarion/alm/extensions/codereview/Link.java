@@ -15,6 +15,9 @@
  */
 package com.polarion.alm.extensions.codereview;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -24,6 +27,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import com.polarion.alm.extensions.codereview.Parameters.WorkflowAction;
+import com.polarion.alm.extensions.codereview.diff.WhitespaceMode;
 import com.polarion.alm.shared.api.utils.links.HtmlLink;
 import com.polarion.alm.shared.api.utils.links.HtmlLinkFactory;
 import com.polarion.alm.tracker.model.IWorkItem;
@@ -35,17 +39,22 @@ final class Link {
     private final boolean aggregatedCompare;
     private final boolean compareAll;
     private final @Nullable WorkflowAction workflowAction;
+    private final @Nullable WhitespaceMode whitespaceMode;
+    private final @Nullable String fromRevision;
     private final @NotNull List<Parameter> additionalParameters;
 
-    Link(@NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction) {
-        this(workItem, aggregatedCompare, compareAll, workflowAction, Collections.emptyList());
+    Link(@NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction, @Nullable WhitespaceMode whitespaceMode, @Nullable String fromRevision) {
+        this(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, Collections.emptyList());
     }
 
-    private Link(@NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction, @NotNull List<Parameter> additionalParameters) {
+    private Link(@NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction, @Nullable WhitespaceMode whitespaceMode,
+            @Nullable String fromRevision, @NotNull List<Parameter> additionalParameters) {
         this.workItem = workItem;
         this.aggregatedCompare = aggregatedCompare;
         this.compareAll = compareAll;
         this.workflowAction = workflowAction;
+        this.whitespaceMode = whitespaceMode;
+        this.fromRevision = fromRevision;
         this.additionalParameters = additionalParameters;
     }
 
@@ -74,6 +83,22 @@ final class Link {
             link.append("=");
             link.append(workflowAction);
         }
+        if (whitespaceMode != null) {
+            link.append("&");
+            link.append(Parameters.PARAM_WHITESPACE);
+            link.append("=");
+            link.append(whitespaceMode);
+        }
+        if (fromRevision != null) {
+            link.append("&");
+            link.append(Parameters.PARAM_FROM_REVISION);
+            link.append("=");
+            try {
+                link.append(URLEncoder.encode(fromRevision, StandardCharsets.UTF_8.name()));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
         for (Parameter additionalParameter : additionalParameters) {
             link.append(additionalParameter.queryString());
         }
@@ -81,15 +106,29 @@ final class Link {
     }
 
     public @NotNull Link withAggregatedCompare(boolean aggregatedCompare) {
-        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, additionalParameters);
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, additionalParameters);
     }
 
     public @NotNull Link withCompareAll(boolean compareAll) {
-        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, additionalParameters);
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, additionalParameters);
     }
 
     public @NotNull Link withWorkflowAction(@Nullable WorkflowAction workflowAction) {
-        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, additionalParameters);
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, additionalParameters);
+    }
+
+    /**
+     * @param whitespaceMode null for the project default
+     */
+    public @NotNull Link withWhitespaceMode(@Nullable WhitespaceMode whitespaceMode) {
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, additionalParameters);
+    }
+
+    /**
+     * @param fromRevision key of the first revision of the shown page, null for the first page
+     */
+    public @NotNull Link withFromRevision(@Nullable String fromRevision) {
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, additionalParameters);
     }
 
     public @NotNull Link withAdditionalParameter(@NotNull String name, @NotNull String value) {
@@ -99,7 +138,7 @@ final class Link {
     public @NotNull Link withAdditionalParameters(@NotNull Parameter... additionalParameters) {
         List<Parameter> joinedAdditionalParameters = new ArrayList<>(this.additionalParameters);
         Collections.addAll(joinedAdditionalParameters, additionalParameters);
-        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, joinedAdditionalParameters);
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, whitespaceMode, fromRevision, joinedAdditionalParameters);
     }
 
     public interface Parameter {
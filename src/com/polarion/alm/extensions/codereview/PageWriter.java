@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.polarion.alm.shared.api.SharedContext;
+import com.polarion.alm.shared.api.utils.html.HtmlFragmentBuilder;
+
+/**
+ * Writes a page to the response while it is being rendered. Every part of the page is rendered into its own
+ * {@link HtmlFragmentBuilder}, written and released as soon as it is complete, so only the part being rendered is held
+ * in memory. No Content-Length is set, the response is sent with chunked transfer encoding and the browser shows the
+ * page as it comes. The page is compressed on the fly if the browser accepts it, see {@link ResponseCompression}.
+ */
+@SuppressWarnings("nls")
+final class PageWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final @NotNull SharedContext context;
+    private final @NotNull Writer writer;
+    private @Nullable StringBuilder recording;
+    private int recordingLimit;
+
+    PageWriter(@NotNull SharedContext context, @NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        this.context = context;
+        response.setContentType("text/html");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        writer = new BufferedWriter(new OutputStreamWriter(ResponseCompression.open(request, response), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @return new builder for the next part of the page, see {@link #write(HtmlFragmentBuilder)}
+     */
+    @NotNull
+    HtmlFragmentBuilder fragment() {
+        return context.createHtmlFragmentBuilderFor().gwt();
+    }
+
+    void write(@NotNull HtmlFragmentBuilder fragment) throws IOException {
+        fragment.finished();
+        write(fragment.toString());
+    }
+
+    void write(@NotNull String html) throws IOException {
+        writer.write(html);
+        StringBuilder recording = this.recording;
+        if (recording != null) {
+            if (recording.length() + html.length() > recordingLimit) {
+                this.recording = null;
+            } else {
+                recording.append(html);
+            }
+        }
+    }
+
+    /**
+     * Keeps a copy of everything written from now on, as long as it does not exceed the limit.
+     *
+     * @param limit maximal number of characters kept
+     */
+    void record(int limit) {
+        recording = new StringBuilder();
+        recordingLimit = limit;
+    }
+
+    /**
+     * @return everything written since {@link #record(int)}, null if it exceeded the limit or nothing was recorded
+     */
+    @Nullable
+    String getRecording() {
+        StringBuilder recording = this.recording;
+        return recording != null ? recording.toString() : null;
+    }
+
+    /**
+     * Sends everything written so far to the browser.
+     */
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
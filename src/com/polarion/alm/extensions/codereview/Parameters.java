@@ -19,6 +19,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
@@ -29,11 +30,14 @@ import javax.servlet.http.HttpServletRequest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.polarion.alm.extensions.codereview.diff.DiffAlgorithmType;
+import com.polarion.alm.extensions.codereview.diff.WhitespaceMode;
 import com.polarion.alm.tracker.model.IComment;
 import com.polarion.alm.tracker.model.IStatusOpt;
 import com.polarion.alm.tracker.model.IWorkItem;
 import com.polarion.alm.tracker.model.IWorkflowAction;
 import com.polarion.core.util.RunnableWEx;
+import com.polarion.core.util.logging.Logger;
 import com.polarion.core.util.types.Text;
 import com.polarion.platform.TransactionExecuter;
 import com.polarion.platform.persistence.IEnumOption;
@@ -44,12 +48,16 @@ import com.polarion.subterra.base.location.ILocation;
 @SuppressWarnings("nls")
 public class Parameters {
 
+    private static final Logger logger = Logger.getLogger(Parameters.class);
+
     // URL parameters
     static final String PARAM_WORK_ITEM_ID = CodeReviewServlet.PARAM_ID;
     static final String PARAM_PROJECT_ID = "projectId";
     static final String PARAM_AGGREGATED_COMPARE = "aggregated";
     static final String PARAM_COMPARE_ALL = "compareAll";
     static final String PARAM_WORKFLOW_ACTION = "workflowAction";
+    static final String PARAM_WHITESPACE = "whitespace";
+    static final String PARAM_FROM_REVISION = "fromRevision";
     private static final String PARAM_REVIEW_COMMENT = "reviewComment";
 
     // configuration parameters
@@ -70,6 +78,17 @@ public class Parameters {
     private static final String CONFIG_SUCCESSFUL_REVIEW_COMMENT_TITLE = "successfulReviewCommentTitle";
     private static final String CONFIG_UNSUCCESSFUL_REVIEW_COMMENT_TITLE = "unsuccessfulReviewCommentTitle";
     private static final String CONFIG_IGNORED_REPOSITORIES = "ignoredRepositories";
+    private static final String CONFIG_DIFF_ALGORITHM = "diffAlgorithm";
+    private static final String CONFIG_DIFF_WHITESPACE = "diffWhitespace";
+    private static final String CONFIG_DIFF_CONTEXT_LINES = "diffContextLines";
+    private static final String CONFIG_DIFF_BUDGET = "diffBudget";
+    private static final String CONFIG_LONG_LINE_LENGTH = "longLineLength";
+    private static final String CONFIG_LAZY_DIFFS = "lazyDiffs";
+    private static final String CONFIG_REVISIONS_PER_PAGE = "revisionsPerPage";
+
+    static final int DEFAULT_DIFF_BUDGET = 5000;
+    static final int DEFAULT_LONG_LINE_LENGTH = 2000;
+    static final int DEFAULT_REVISIONS_PER_PAGE = 100;
 
     public static enum WorkflowAction {
         successfulReview, unsuccessfulReview;
@@ -81,6 +100,8 @@ public class Parameters {
     private final boolean aggregatedCompare;
     private final boolean compareAll;
     private final @Nullable WorkflowAction workflowAction;
+    private final @Nullable WhitespaceMode requestedWhitespaceMode;
+    private final @Nullable String fromRevision;
 
     private final @Nullable String lastReviewedRevisionField;
     private final @Nullable String reviewedRevisionsField;
@@ -100,14 +121,24 @@ public class Parameters {
     private final @NotNull Collection<String> pastReviewers;
     private final boolean preventReviewConflicts;
     private final @NotNull Collection<String> ignoredRepositories;
-
-    private Parameters(@NotNull ParametersContext context, @NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction, @Nullable String commentText) {
+    private final @NotNull DiffAlgorithmType diffAlgorithm;
+    private final @NotNull WhitespaceMode whitespaceMode;
+    private final int diffContextLines;
+    private final int diffBudget;
+    private final int longLineLength;
+    private final boolean lazyDiffs;
+    private final int revisionsPerPage;
+
+    private Parameters(@NotNull ParametersContext context, @NotNull IWorkItem workItem, boolean aggregatedCompare, boolean compareAll, @Nullable WorkflowAction workflowAction,
+            @Nullable WhitespaceMode requestedWhitespaceMode, @Nullable String fromRevision, @Nullable String commentText) {
         super();
         this.context = context;
         this.workItem = workItem;
         this.aggregatedCompare = aggregatedCompare;
         this.compareAll = compareAll;
         this.workflowAction = workflowAction;
+        this.requestedWhitespaceMode = requestedWhitespaceMode;
+        this.fromRevision = fromRevision;
         Properties configuration = context.loadConfiguration(workItem);
         lastReviewedRevisionField = configuration.getProperty(CONFIG_LAST_REVIEWED_REVISION_FIELD);
         reviewedRevisionsField = configuration.getProperty(CONFIG_REVIEWED_REVISIONS_FIELD);
@@ -132,6 +163,18 @@ public class Parameters {
         pastReviewers = parseSet(configuration.getProperty(CONFIG_PAST_REVIEWERS));
         preventReviewConflicts = Boolean.parseBoolean(configuration.getProperty(CONFIG_PREVENT_REVIEW_CONFLICTS));
         ignoredRepositories = parseSet(configuration.getProperty(CONFIG_IGNORED_REPOSITORIES));
+        diffAlgorithm = parseDiffAlgorithm(configuration.getProperty(CONFIG_DIFF_ALGORITHM));
+        if (requestedWhitespaceMode != null) {
+            whitespaceMode = requestedWhitespaceMode;
+        } else {
+            WhitespaceMode configuredWhitespaceMode = parseWhitespaceMode(CONFIG_DIFF_WHITESPACE, configuration.getProperty(CONFIG_DIFF_WHITESPACE));
+            whitespaceMode = configuredWhitespaceMode != null ? configuredWhitespaceMode : WhitespaceMode.eol;
+        }
+        diffContextLines = parseInt(configuration.getProperty(CONFIG_DIFF_CONTEXT_LINES), -1);
+        diffBudget = parseInt(configuration.getProperty(CONFIG_DIFF_BUDGET), DEFAULT_DIFF_BUDGET);
+        longLineLength = parseInt(configuration.getProperty(CONFIG_LONG_LINE_LENGTH), DEFAULT_LONG_LINE_LENGTH);
+        lazyDiffs = Boolean.parseBoolean(configuration.getProperty(CONFIG_LAZY_DIFFS));
+        revisionsPerPage = parseInt(configuration.getProperty(CONFIG_REVISIONS_PER_PAGE), DEFAULT_REVISIONS_PER_PAGE);
     }
 
     private static @NotNull Set<String> parseSet(@Nullable String s) {
@@ -142,6 +185,28 @@ public class Parameters {
         }
     }
 
+    private static int parseInt(@Nullable String s, int defaultValue) {
+        if (s != null) {
+            try {
+                return Integer.parseInt(s.trim());
+            } catch (NumberFormatException e) {
+                // ignored
+            }
+        }
+        return defaultValue;
+    }
+
+    private static @NotNull DiffAlgorithmType parseDiffAlgorithm(@Nullable String s) {
+        if (s != null) {
+            try {
+                return DiffAlgorithmType.parse(s);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown " + CONFIG_DIFF_ALGORITHM + " '" + s + "', using " + DiffAlgorithmType.auto);
+            }
+        }
+        return DiffAlgorithmType.auto;
+    }
+
     private static @Nullable WorkflowAction parseWorkflowAction(@Nullable String s) {
         if (s == null) {
             return null;
@@ -149,13 +214,29 @@ public class Parameters {
         return WorkflowAction.valueOf(s);
     }
 
+    /**
+     * @return the whitespace mode, null if there is none or it is unknown (the configured or default one applies then)
+     */
+    private static @Nullable WhitespaceMode parseWhitespaceMode(@NotNull String key, @Nullable String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return WhitespaceMode.parse(s);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown " + key + " '" + s + "', ignored");
+            return null;
+        }
+    }
+
     public Parameters(@NotNull ParametersContext context, @NotNull HttpServletRequest request) {
         this(context, context.getWorkItem(request.getParameter(PARAM_PROJECT_ID), request.getParameter(PARAM_WORK_ITEM_ID)), Boolean.parseBoolean(request.getParameter(PARAM_AGGREGATED_COMPARE)),
-                Boolean.parseBoolean(request.getParameter(PARAM_COMPARE_ALL)), parseWorkflowAction(request.getParameter(PARAM_WORKFLOW_ACTION)), request.getParameter(PARAM_REVIEW_COMMENT));
+                Boolean.parseBoolean(request.getParameter(PARAM_COMPARE_ALL)), parseWorkflowAction(request.getParameter(PARAM_WORKFLOW_ACTION)),
+                parseWhitespaceMode(PARAM_WHITESPACE, request.getParameter(PARAM_WHITESPACE)), request.getParameter(PARAM_FROM_REVISION), request.getParameter(PARAM_REVIEW_COMMENT));
     }
 
     public Parameters(@NotNull ParametersContext context, @NotNull IWorkItem workItem) {
-        this(context, workItem, false, false, null, null);
+        this(context, workItem, false, false, null, null, null, null);
     }
 
     public @NotNull IWorkItem getWorkItem() {
@@ -166,6 +247,67 @@ public class Parameters {
         return aggregatedCompare;
     }
 
+    public @NotNull DiffAlgorithmType getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    /**
+     * @return whitespace mode requested by the URL, the project default otherwise
+     */
+    public @NotNull WhitespaceMode getWhitespaceMode() {
+        return whitespaceMode;
+    }
+
+    /**
+     * @return number of unchanged lines shown around changes, negative value if whole files are shown
+     */
+    public int getDiffContextLines() {
+        return diffContextLines;
+    }
+
+    /**
+     * @return time (in ms) available for diffing all files of one page
+     */
+    public int getDiffBudget() {
+        return diffBudget;
+    }
+
+    /**
+     * @return length above which only the changed parts of changed lines are shown, 0 or negative value if disabled
+     */
+    public int getLongLineLength() {
+        return longLineLength;
+    }
+
+    /**
+     * @return all values the review page depends on besides the data of the work item and the permissions of the user
+     */
+    public @NotNull List<Object> getViewKey() {
+        return Arrays.asList(workItem.getProjectId(), workItem.getId(), aggregatedCompare, compareAll, workflowAction, requestedWhitespaceMode, whitespaceMode, diffAlgorithm, diffContextLines, diffBudget,
+                longLineLength, lazyDiffs, fromRevision, revisionsPerPage);
+    }
+
+    /**
+     * @return true if compared files are loaded by the page when they are scrolled to
+     */
+    public boolean isLazyDiffs() {
+        return lazyDiffs;
+    }
+
+    /**
+     * @return maximal number of revisions shown on one page of the regular view, 0 or negative value if all are shown
+     */
+    public int getRevisionsPerPage() {
+        return revisionsPerPage;
+    }
+
+    /**
+     * @return key of the first revision of the requested page, null for the first page
+     */
+    public @Nullable String getFromRevision() {
+        return fromRevision;
+    }
+
     public @Nullable Integer getLastReviewedRevision() {
         Object lastReviewedRevisionValue = lastReviewedRevisionField != null && !lastReviewedRevisionField.isEmpty() ? workItem.getValue(lastReviewedRevisionField) : null;
         Integer lastReviewedRevision = null;
@@ -186,7 +328,7 @@ public class Parameters {
     }
 
     public @NotNull Link link() {
-        return new Link(workItem, aggregatedCompare, compareAll, workflowAction);
+        return new Link(workItem, aggregatedCompare, compareAll, workflowAction, requestedWhitespaceMode, fromRevision);
     }
 
     public @NotNull Revisions createRevisions() {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.polarion.platform.persistence.model.IRevision;
+import com.polarion.platform.service.repository.ILocationChangeMetaData;
+import com.polarion.subterra.base.location.ILocation;
+
+/**
+ * Modifications of every path within the revisions of one request, collected in a single pass. The aggregated view
+ * asks for every changed file whether it was modified by a later revision and where its first modification started,
+ * without the index every such question rescanned all revisions.
+ */
+final class PathChangeIndex {
+
+    private final @NotNull Map<ILocation, PathChanges> paths = new HashMap<>();
+
+    PathChangeIndex(@NotNull List<IRevision> revisions) {
+        for (IRevision revision : revisions) {
+            int revisionNumber = CodeReviewServlet.getRevision(revision);
+            for (ILocationChangeMetaData metaData : revision.getChangedLocations()) {
+                if (metaData.isModified()) {
+                    ILocation location = metaData.getChangeLocationTo();
+                    ILocation path = location.removeRevision();
+                    PathChanges changes = paths.get(path);
+                    if (changes == null) {
+                        paths.put(path, new PathChanges(location, revisionNumber));
+                    } else {
+                        changes.lastRevision = Math.max(changes.lastRevision, revisionNumber);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the changed path was modified by a revision newer than the given one
+     */
+    boolean wasModifiedAfter(@NotNull ILocationChangeMetaData metaData, @NotNull IRevision revision) {
+        PathChanges changes = paths.get(metaData.getChangeLocationTo().removeRevision());
+        return changes != null && changes.lastRevision > CodeReviewServlet.getRevision(revision);
+    }
+
+    /**
+     * @return location of the first modification (in the order of the revisions) of the changed path, the changed
+     *         location itself if the path was not modified
+     */
+    @NotNull
+    ILocation getFirstModification(@NotNull ILocationChangeMetaData metaData) {
+        PathChanges changes = paths.get(metaData.getChangeLocationTo().removeRevision());
+        return changes != null ? changes.firstLocation : metaData.getChangeLocationTo();
+    }
+
+    private static final class PathChanges {
+
+        private final @NotNull ILocation firstLocation;
+        private int lastRevision;
+
+        PathChanges(@NotNull ILocation firstLocation, int revision) {
+            this.firstLocation = firstLocation;
+            lastRevision = revision;
+        }
+
+    }
+
+}
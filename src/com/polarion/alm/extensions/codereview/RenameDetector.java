@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.polarion.alm.extensions.codereview.diff.MinHashSketch;
+import com.polarion.core.util.logging.Logger;
+import com.polarion.platform.service.repository.IRepositoryReadOnlyConnection;
+import com.polarion.subterra.base.location.ILocation;
+
+/**
+ * Pairs removed and added files of the reviewed revisions which are similar enough to be shown as a rename (a compact
+ * diff) instead of a full deletion and a full addition. Every candidate file is read once into a {@link MinHashSketch},
+ * candidate pairs have to share a sketch value, so no pair of files is diffed or compared in full. Binary files and
+ * files longer than {@value #MAX_CANDIDATE_CHARS} characters are never paired, reading stops as soon as either shows.
+ */
+@SuppressWarnings("nls")
+public class RenameDetector {
+
+    private static final Logger logger = Logger.getLogger(RenameDetector.class);
+
+    // minimal estimated similarity of a rename, same as the default of git
+    private static final double MIN_SIMILARITY = 0.5;
+    // longer files are not paired, reading them would cost more than showing them as removed and added
+    private static final long MAX_CANDIDATE_CHARS = 1024 * 1024;
+
+    private final @NotNull IRepositoryReadOnlyConnection connection;
+    private final @NotNull List<Candidate> removed = new ArrayList<>();
+    private final @NotNull List<Candidate> added = new ArrayList<>();
+
+    private final @NotNull Map<String, Rename> renamesByAdded = new HashMap<>();
+    private final @NotNull Set<String> pairedRemovals = new HashSet<>();
+
+    public RenameDetector(@NotNull IRepositoryReadOnlyConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param changeLocation location of the change (see {@link #isPairedRemoval(ILocation)})
+     * @param previousState last state of the removed file
+     */
+    public void addRemoved(@NotNull ILocation changeLocation, @NotNull ILocation previousState) {
+        removed.add(new Candidate(changeLocation, previousState));
+    }
+
+    public void addAdded(@NotNull ILocation changeLocation) {
+        added.add(new Candidate(changeLocation, changeLocation));
+    }
+
+    /**
+     * Pairs the candidates added since the last call, files are only read if there are both removed and added ones.
+     */
+    public void detect() {
+        if (!removed.isEmpty() && !added.isEmpty()) {
+            pair();
+        }
+        removed.clear();
+        added.clear();
+    }
+
+    private void pair() {
+        Map<Long, List<Candidate>> addedByValue = new HashMap<>();
+        for (Candidate candidate : added) {
+            for (long value : candidate.sketch(connection).values()) {
+                addedByValue.computeIfAbsent(value, v -> new ArrayList<>()).add(candidate);
+            }
+        }
+        List<Rename> pairs = new ArrayList<>();
+        for (Candidate from : removed) {
+            Set<Candidate> checked = new HashSet<>();
+            for (long value : from.sketch(connection).values()) {
+                for (Candidate to : addedByValue.getOrDefault(value, Collections.emptyList())) {
+                    // a file removed and added again at the same path is no rename
+                    if (checked.add(to) && !from.content.getLocationPath().equals(to.content.getLocationPath())) {
+                        double similarity = from.sketch(connection).similarity(to.sketch(connection));
+                        if (similarity >= MIN_SIMILARITY) {
+                            pairs.add(new Rename(from, to, similarity));
+                        }
+                    }
+                }
+            }
+        }
+        // most similar pairs first, a file with the same name wins a tie
+        pairs.sort((p1, p2) -> p1.similarity != p2.similarity ? Double.compare(p2.similarity, p1.similarity) : Boolean.compare(p2.isSameName(), p1.isSameName()));
+        for (Rename rename : pairs) {
+            String fromKey = rename.from.changeLocation.serialize();
+            String toKey = rename.to.changeLocation.serialize();
+            if (!pairedRemovals.contains(fromKey) && !renamesByAdded.containsKey(toKey)) {
+                pairedRemovals.add(fromKey);
+                renamesByAdded.put(toKey, rename);
+            }
+        }
+    }
+
+    /**
+     * @return rename whose new file was added by the given change, null if the addition was not paired
+     */
+    public @Nullable Rename getRename(@NotNull ILocation addedChangeLocation) {
+        return renamesByAdded.get(addedChangeLocation.serialize());
+    }
+
+    /**
+     * @return true if the removal is shown as part of a rename
+     */
+    public boolean isPairedRemoval(@NotNull ILocation removedChangeLocation) {
+        return pairedRemovals.contains(removedChangeLocation.serialize());
+    }
+
+    public static final class Rename {
+
+        private final @NotNull Candidate from;
+        private final @NotNull Candidate to;
+        private final double similarity;
+
+        Rename(@NotNull Candidate from, @NotNull Candidate to, double similarity) {
+            this.from = from;
+            this.to = to;
+            this.similarity = similarity;
+        }
+
+        /**
+         * @return last state of the removed file
+         */
+        public @NotNull ILocation getFrom() {
+            return from.content;
+        }
+
+        public @NotNull ILocation getTo() {
+            return to.content;
+        }
+
+        /**
+         * @return estimated similarity in percent
+         */
+        public int getSimilarity() {
+            return (int) Math.round(similarity * 100);
+        }
+
+        boolean isSameName() {
+            return from.content.getLastComponent().equals(to.content.getLastComponent());
+        }
+
+    }
+
+    private static final class Candidate {
+
+        private final @NotNull ILocation changeLocation;
+        private final @NotNull ILocation content;
+        private @Nullable MinHashSketch sketch;
+
+        Candidate(@NotNull ILocation changeLocation, @NotNull ILocation content) {
+            this.changeLocation = changeLocation;
+            this.content = content;
+        }
+
+        @NotNull
+        MinHashSketch sketch(@NotNull IRepositoryReadOnlyConnection connection) {
+            MinHashSketch result = sketch;
+            if (result == null) {
+                try {
+                    // read like the compared files, see CodeReviewServlet.getTokenizedContent()
+                    result = MinHashSketch.of(connection.getContent(content), StandardCharsets.UTF_8, MAX_CANDIDATE_CHARS);
+                } catch (IOException e) {
+                    logger.error("Reading of " + content + " failed", e);
+                    result = MinHashSketch.EMPTY;
+                }
+                sketch = result;
+            }
+            return result;
+        }
+
+    }
+
+}
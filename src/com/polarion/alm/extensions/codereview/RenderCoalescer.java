@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lets identical renders running at the same time share one result. A review page is often requested again while it
+ * is still rendered (reloads, several tabs, repeated clicks); the first request renders the page, the others wait for
+ * its page instead of loading and diffing all files again. Waiting is limited, a request which times out renders the
+ * page itself. The key has to identify the user, the pages contain file contents readable by that user only.
+ */
+final class RenderCoalescer {
+
+    private final @NotNull ConcurrentMap<Object, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @param key all values the result depends on
+     * @return new flight to be completed by the caller, null if an identical render is in flight already
+     */
+    @Nullable
+    Flight start(@NotNull Object key) {
+        Flight flight = new Flight(key);
+        return flights.putIfAbsent(key, flight) == null ? flight : null;
+    }
+
+    /**
+     * Waits for the identical render in flight.
+     *
+     * @return its result, null if there is none, it failed or it did not finish in time
+     */
+    @Nullable
+    String await(@NotNull Object key, long timeoutMillis) throws InterruptedException {
+        Flight flight = flights.get(key);
+        return flight != null ? flight.await(timeoutMillis) : null;
+    }
+
+    final class Flight {
+
+        private final @NotNull Object key;
+        private final @NotNull CountDownLatch done = new CountDownLatch(1);
+        private volatile @Nullable String result;
+
+        private Flight(@NotNull Object key) {
+            this.key = key;
+        }
+
+        /**
+         * Must be called in any case, later identical renders start a new flight.
+         *
+         * @param result null if the render failed or the result is not to be shared, the waiting requests render on their own
+         */
+        void complete(@Nullable String result) {
+            this.result = result;
+            flights.remove(key, this);
+            done.countDown();
+        }
+
+        private @Nullable String await(long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS) ? result : null;
+        }
+
+    }
+
+}
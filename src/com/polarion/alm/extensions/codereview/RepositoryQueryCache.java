@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.polarion.platform.service.repository.IRepositoryReadOnlyConnection;
+import com.polarion.subterra.base.location.ILocation;
+
+/**
+ * Memoizing cache of repository facts (existence, node kind and mime type) about the files of one page. Every fact is
+ * asked from the repository when it is first needed and at most once per location, the rename detection, the diff
+ * prefetch and the rendering share the answers. Nothing is batched, the read-only connection offers no batched
+ * queries, so every fact still costs its own call, only not once per use.
+ */
+final class RepositoryQueryCache {
+
+    private final @NotNull IRepositoryReadOnlyConnection connection;
+    private final @NotNull Map<ILocation, Node> nodes = new HashMap<>();
+
+    RepositoryQueryCache(@NotNull IRepositoryReadOnlyConnection connection) {
+        this.connection = connection;
+    }
+
+    boolean exists(@NotNull ILocation location) {
+        Node node = node(location);
+        if (node.exists == null) {
+            node.exists = connection.exists(location);
+        }
+        return node.exists;
+    }
+
+    /**
+     * @return true for text files, decided by the file name or by the "svn:mime-type" property
+     */
+    boolean isValidFileForCompare(@NotNull ILocation location) {
+        Node node = node(location);
+        if (node.validForCompare == null) {
+            node.validForCompare = !connection.isFolder(location) && isText(location);
+        }
+        return node.validForCompare;
+    }
+
+    private boolean isText(@NotNull ILocation location) {
+        String fileName = location.getLastComponent().toLowerCase();
+        if (CodeReviewServlet.fileExtension.matcher(fileName).find() || "readme".equalsIgnoreCase(fileName)) {
+            return true;
+        }
+        // only files not recognized by their name need the property
+        String mimeType = connection.getProperty(location, "svn:mime-type"); //$NON-NLS-1$
+        return (mimeType != null) && mimeType.startsWith("text/"); //$NON-NLS-1$
+    }
+
+    private @NotNull Node node(@NotNull ILocation location) {
+        Node node = nodes.get(location);
+        if (node == null) {
+            node = new Node();
+            nodes.put(location, node);
+        }
+        return node;
+    }
+
+    private static final class Node {
+
+        Boolean exists;
+        Boolean validForCompare;
+
+    }
+
+}
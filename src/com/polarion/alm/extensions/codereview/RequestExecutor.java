@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.io.IOException;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.polarion.core.util.logging.Logger;
+import com.polarion.platform.security.ISecurityService;
+
+/**
+ * Renders pages off the request threads of the web server, so a few big reviews cannot occupy all of them and stall
+ * the whole portal. At most {@value #PROPERTY_THREADS} requests are rendered at a time, up to
+ * {@value #PROPERTY_QUEUE} further requests wait in a queue for at most {@value #PROPERTY_QUEUE_TIME} ms. Requests which
+ * find the queue full, or wait for too long, get 503 with Retry-After.
+ * <p>
+ * Review pages and compares of single files (mostly parts of review pages loaded later) get separate executors (see
+ * {@link #forPages} and {@link #forCompares}), so slow pages cannot turn away the small requests of pages already shown.
+ */
+@SuppressWarnings("nls")
+final class RequestExecutor {
+
+    private static final Logger logger = Logger.getLogger(RequestExecutor.class);
+
+    static final String PROPERTY_THREADS = "com.polarion.alm.extensions.codereview.requestThreads";
+    static final String PROPERTY_QUEUE = "com.polarion.alm.extensions.codereview.requestQueue";
+    static final String PROPERTY_QUEUE_TIME = "com.polarion.alm.extensions.codereview.requestQueueTime";
+    static final String PROPERTY_COMPARE_THREADS = "com.polarion.alm.extensions.codereview.compareThreads";
+    static final String PROPERTY_COMPARE_QUEUE = "com.polarion.alm.extensions.codereview.compareQueue";
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE = 32;
+    private static final int DEFAULT_COMPARE_THREADS = 8;
+    private static final int DEFAULT_COMPARE_QUEUE = 128;
+    private static final int DEFAULT_QUEUE_TIME = 30000;
+    private static final int RETRY_AFTER_SECONDS = 10;
+
+    private final @NotNull ThreadPoolExecutor executor;
+    private final long maxQueueTime;
+    private final @NotNull ISecurityService securityService;
+
+    private RequestExecutor(@NotNull ISecurityService securityService, @NotNull String name, int threads, int queue) {
+        this.securityService = securityService;
+        maxQueueTime = Integer.getInteger(PROPERTY_QUEUE_TIME, DEFAULT_QUEUE_TIME);
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codereview-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static @NotNull RequestExecutor forPages(@NotNull ISecurityService securityService) {
+        return new RequestExecutor(securityService, "request", Math.max(1, Integer.getInteger(PROPERTY_THREADS, DEFAULT_THREADS)),
+                Math.max(1, Integer.getInteger(PROPERTY_QUEUE, DEFAULT_QUEUE)));
+    }
+
+    static @NotNull RequestExecutor forCompares(@NotNull ISecurityService securityService) {
+        return new RequestExecutor(securityService, "compare", Math.max(1, Integer.getInteger(PROPERTY_COMPARE_THREADS, DEFAULT_COMPARE_THREADS)),
+                Math.max(1, Integer.getInteger(PROPERTY_COMPARE_QUEUE, DEFAULT_COMPARE_QUEUE)));
+    }
+
+    /**
+     * Runs the work asynchronously as the current user, or right away on the request thread if the request does not
+     * support asynchronous processing.
+     */
+    void execute(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull Runnable work) throws IOException {
+        if (!request.isAsyncSupported()) {
+            work.run();
+            return;
+        }
+        AsyncContext asyncContext = request.startAsync();
+        // big reviews are streamed for minutes, the queue time is limited instead
+        asyncContext.setTimeout(0);
+        Task task = new Task(response, asyncContext, securityService.getCurrentSubject(), work);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many requests waiting for rendering, rejected");
+            task.reject();
+        }
+    }
+
+    /**
+     * Lets the requests being rendered finish, the waiting ones get 503.
+     */
+    void shutdown() {
+        executor.shutdown();
+        List<Runnable> waiting = new ArrayList<>();
+        executor.getQueue().drainTo(waiting);
+        for (Runnable task : waiting) {
+            ((Task) task).reject();
+        }
+    }
+
+    private final class Task implements Runnable {
+
+        private final @NotNull HttpServletResponse response;
+        private final @NotNull AsyncContext asyncContext;
+        private final @NotNull Subject subject;
+        private final @NotNull Runnable work;
+        private final long submitted = System.currentTimeMillis();
+
+        Task(@NotNull HttpServletResponse response, @NotNull AsyncContext asyncContext, @NotNull Subject subject, @NotNull Runnable work) {
+            this.response = response;
+            this.asyncContext = asyncContext;
+            this.subject = subject;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long queueTime = System.currentTimeMillis() - submitted;
+                if (maxQueueTime > 0 && queueTime > maxQueueTime) {
+                    logger.warn("Request waited " + queueTime + "ms for rendering, rejected");
+                    sendUnavailable();
+                } else {
+                    securityService.doAsUser(subject, (PrivilegedAction<Void>) () -> {
+                        work.run();
+                        return null;
+                    });
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        /**
+         * Answers the request by 503 without running the work.
+         */
+        void reject() {
+            try {
+                sendUnavailable();
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        private void sendUnavailable() throws IOException {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many code reviews are being rendered, please try again later.");
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * gzip compression of responses, used if the browser accepts it. Review pages of escaped source code and the scripts
+ * compress several times.
+ */
+@SuppressWarnings("nls")
+final class ResponseCompression {
+
+    // below this size compression does not pay off
+    static final int MIN_COMPRESSED_LENGTH = 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ResponseCompression() {
+    }
+
+    static boolean acceptsGzip(@NotNull HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip")) {
+                return isAccepted(parts);
+            } else if (name.equals("*")) {
+                wildcard = isAccepted(parts);
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static boolean isAccepted(@NotNull String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    // ignored
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens the response for streaming, compressed if the browser accepts it. Flushing the returned stream sends all
+     * data written so far.
+     */
+    static @NotNull OutputStream open(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        response.addHeader("Vary", "Accept-Encoding");
+        if (acceptsGzip(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            return new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE, true);
+        }
+        return response.getOutputStream();
+    }
+
+    /**
+     * Sends the content with its length and closes the response. The content is only compressed if the browser accepts
+     * it.
+     */
+    static void send(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull byte[] content) throws IOException {
+        byte[] body = content;
+        if (content.length >= MIN_COMPRESSED_LENGTH) {
+            response.addHeader("Vary", "Accept-Encoding");
+            byte[] gzipContent = acceptsGzip(request) ? gzip(content) : null;
+            if (gzipContent != null) {
+                response.setHeader("Content-Encoding", "gzip");
+                body = gzipContent;
+            }
+        }
+        write(response, body);
+    }
+
+    /**
+     * Sends the body with its length and closes the response.
+     */
+    static void write(@NotNull HttpServletResponse response, @NotNull byte[] body) throws IOException {
+        response.setContentLength(body.length);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @return compressed content, null if it is too short or does not get any shorter
+     */
+    static @Nullable byte[] gzip(@NotNull byte[] content) throws IOException {
+        if (content.length < MIN_COMPRESSED_LENGTH) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, BUFFER_SIZE)) {
+            gzip.write(content);
+        }
+        return bytes.size() < content.length ? bytes.toByteArray() : null;
+    }
+
+}
@@ -106,6 +106,34 @@ public final class Revisions {
         return revisions;
     }
 
+    /**
+     * One page of {@link #getComparableRevisionsToReview()}, the page starts at the revision given by the cursor (its
+     * key). If that revision was reviewed in the meantime, the page starts at the next revision to review.
+     *
+     * @param cursor key of the first revision of the page, null for the first page
+     * @param pageSize maximal number of revisions on the page, 0 or negative value for all revisions
+     */
+    public @NotNull Page getComparableRevisionsToReview(@Nullable String cursor, int pageSize) {
+        List<RevisionModel> comparable = new ArrayList<>();
+        int start = 0;
+        for (RevisionModel revisionModel : revisionModels) {
+            if (pageSize > 0 && cursor != null && cursor.equals(revisionModel.getKey())) {
+                start = comparable.size();
+            }
+            if (!revisionModel.reviewed && revisionModel.suitableForCompare) {
+                comparable.add(revisionModel);
+            }
+        }
+        int end = pageSize > 0 ? Math.min(start + pageSize, comparable.size()) : comparable.size();
+        List<IRevision> revisions = new ArrayList<>();
+        for (RevisionModel revisionModel : comparable.subList(start, end)) {
+            revisions.add(revisionModel.revision);
+        }
+        String previousCursor = start > 0 ? comparable.get(Math.max(0, start - pageSize)).getKey() : null;
+        String nextCursor = end < comparable.size() ? comparable.get(end).getKey() : null;
+        return new Page(revisions, start, comparable.size(), previousCursor, nextCursor);
+    }
+
     public boolean hasRevisionsToReview() {
         for (RevisionModel revisionModel : revisionModels) {
             if (!revisionModel.reviewed) {
@@ -212,4 +240,58 @@ public final class Revisions {
         return new RevisionsRenderer(this);
     }
 
+    public static final class Page {
+
+        private final @NotNull List<IRevision> revisions;
+        private final int offset;
+        private final int total;
+        private final @Nullable String previousCursor;
+        private final @Nullable String nextCursor;
+
+        Page(@NotNull List<IRevision> revisions, int offset, int total, @Nullable String previousCursor, @Nullable String nextCursor) {
+            this.revisions = revisions;
+            this.offset = offset;
+            this.total = total;
+            this.previousCursor = previousCursor;
+            this.nextCursor = nextCursor;
+        }
+
+        public @NotNull List<IRevision> getRevisions() {
+            return revisions;
+        }
+
+        /**
+         * @return number of revisions to review before this page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return number of revisions to review on all pages
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return cursor of the previous page, null on the first page
+         */
+        public @Nullable String getPreviousCursor() {
+            return previousCursor;
+        }
+
+        /**
+         * @return cursor of the next page, null on the last page
+         */
+        public @Nullable String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean isPaged() {
+            return previousCursor != null || nextCursor != null;
+        }
+
+    }
+
 }
\ No newline at end of file
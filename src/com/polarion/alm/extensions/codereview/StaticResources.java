@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Static files of the web application (scripts, styles, images) held in memory. All files are loaded when the servlet
+ * starts, text files are compressed once and served compressed to browsers accepting it.
+ * <p>
+ * Every file has a fingerprint (hash of its content) used as its ETag. Pages refer to the files by
+ * {@link #url(String)} which includes the fingerprint, such URLs change with the content and may be cached forever.
+ * Requests without the current fingerprint are revalidated by the browser and answered by 304 if nothing changed.
+ */
+@SuppressWarnings("nls")
+final class StaticResources {
+
+    static final String PARAM_VERSION = "v";
+
+    private static final String URL_PREFIX = "/polarion/codereview/";
+    private static final String CACHE_FOREVER = "max-age=31536000, immutable";
+    private static final String CACHE_REVALIDATE = "no-cache";
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private final @NotNull ServletContext servletContext;
+    private final @NotNull ConcurrentMap<String, Resource> resources = new ConcurrentHashMap<>();
+
+    StaticResources(@NotNull ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Loads all files except of WEB-INF.
+     */
+    void preload() throws IOException {
+        preload("/");
+    }
+
+    private void preload(@NotNull String directory) throws IOException {
+        Set<String> paths = servletContext.getResourcePaths(directory);
+        if (paths == null) {
+            return;
+        }
+        for (String path : paths) {
+            if (path.startsWith("/WEB-INF/")) {
+                continue;
+            }
+            if (path.endsWith("/")) {
+                preload(path);
+            } else {
+                get(path.substring(1));
+            }
+        }
+    }
+
+    /**
+     * @param path path relative to the web application
+     * @return absolute URL of the file including its fingerprint, without the fingerprint if the file was not loaded
+     */
+    @NotNull
+    String url(@NotNull String path) {
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            return URL_PREFIX + path;
+        }
+        return URL_PREFIX + path + "?" + PARAM_VERSION + "=" + resource.fingerprint;
+    }
+
+    /**
+     * @param path path relative to the web application, files not loaded yet are loaded now
+     * @return null if there is no such file
+     */
+    @Nullable
+    Resource get(@NotNull String path) throws IOException {
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            resource = load(path);
+            if (resource != null) {
+                Resource loaded = resources.putIfAbsent(path, resource);
+                if (loaded != null) {
+                    resource = loaded;
+                }
+            }
+        }
+        return resource;
+    }
+
+    private @Nullable Resource load(@NotNull String path) throws IOException {
+        InputStream stream = servletContext.getResourceAsStream(path);
+        if (stream == null) {
+            stream = servletContext.getResourceAsStream("/" + path);
+            if (stream == null) {
+                return null;
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = stream.read(buf)) != -1) {
+                bytes.write(buf, 0, len);
+            }
+        } finally {
+            stream.close();
+        }
+        byte[] content = bytes.toByteArray();
+        String contentType = getContentType(path);
+        boolean text = contentType != null && !contentType.startsWith("image/");
+        return new Resource(contentType, content, text ? ResponseCompression.gzip(content) : null, fingerprint(content));
+    }
+
+    private static @NotNull String fingerprint(@NotNull byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder fingerprint = new StringBuilder(FINGERPRINT_LENGTH);
+            for (int i = 0; i < FINGERPRINT_LENGTH / 2; i++) {
+                fingerprint.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static @Nullable String getContentType(@NotNull String path) {
+        if (path.endsWith(".js")) {
+            return "text/javascript";
+        } else if (path.endsWith(".html")) {
+            return "text/html";
+        } else if (path.endsWith(".png")) {
+            return "image/png";
+        } else if (path.endsWith("css")) {
+            return "text/css";
+        }
+        return null;
+    }
+
+    static final class Resource {
+
+        private final @Nullable String contentType;
+        private final @NotNull byte[] content;
+        private final @Nullable byte[] gzipContent;
+        private final @NotNull String fingerprint;
+
+        Resource(@Nullable String contentType, @NotNull byte[] content, @Nullable byte[] gzipContent, @NotNull String fingerprint) {
+            this.contentType = contentType;
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Sends the file, or 304 if the browser has the same representation already.
+         */
+        void send(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+            boolean gzip = gzipContent != null && ResponseCompression.acceptsGzip(request);
+            // both representations need their own tag
+            String etag = "\"" + fingerprint + (gzip ? "-gzip" : "") + "\"";
+            if (gzipContent != null) {
+                response.addHeader("Vary", "Accept-Encoding");
+            }
+            response.setHeader("ETag", etag);
+            response.setHeader("Cache-Control", fingerprint.equals(request.getParameter(PARAM_VERSION)) ? CACHE_FOREVER : CACHE_REVALIDATE);
+            if (matches(request.getHeader("If-None-Match"), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            if (gzip) {
+                response.setHeader("Content-Encoding", "gzip");
+                ResponseCompression.write(response, gzipContent);
+            } else {
+                ResponseCompression.write(response, content);
+            }
+        }
+
+        private static boolean matches(@Nullable String ifNoneMatch, @NotNull String etag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag) || tag.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -34,6 +34,15 @@ import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.polarion.alm.extensions.codereview.diff.DiffAlgorithmType;
+import com.polarion.alm.extensions.codereview.diff.DiffBudget;
+import com.polarion.alm.extensions.codereview.diff.EditScript;
+import com.polarion.alm.extensions.codereview.diff.LineDiff;
+import com.polarion.alm.extensions.codereview.diff.LineTokenizer;
+import com.polarion.alm.extensions.codereview.diff.TokenTable;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.alm.extensions.codereview.diff.WordTokenizer;
+
 /**
  * 
  * Class containing the diff, match and patch methods, and settings to control the Diff process.
@@ -54,12 +63,6 @@ public class TextDiffMatchPatch
 
     private static final String UTF_8 = "UTF-8";
 
-    private static final String TAG_REGEX = "<(\"[^\"]*\"|'[^']*'|[^'\">])*>"; //in case the texts being compared contain XML or HTML tags
-
-    private static final String WORD_SEPARATOR_REGEX = "[ :;?!]|" + TAG_REGEX;
-
-    private static final Pattern WORD_SEPARATOR_PATTERN = Pattern.compile(WORD_SEPARATOR_REGEX);
-
     // Defaults.
     // Set these on your DiffMatchPatch instance to override the defaults.
 
@@ -577,13 +580,13 @@ public class TextDiffMatchPatch
     }
 
     /**
-     * Indicates is the given value, matches a word separator pattern ({@link #WORD_SEPARATOR_REGEX})
+     * Indicates is the given value is a word separator (see {@link WordTokenizer})
      * @param value
      * @return
      */
     private static boolean isWordSepartor(final String value)
     {
-        return WORD_SEPARATOR_PATTERN.matcher(value).matches();
+        return !value.isEmpty() && WordTokenizer.separatorEnd(value, 0, value.length()) == value.length();
     }
 
     /**
@@ -619,6 +622,132 @@ public class TextDiffMatchPatch
         return diffs;
     }
 
+    /**
+     * Find the differences between two texts at line level.
+     * Unlike {@link #diffMainAtLineLevel(String, String)} the lines are interned into int tokens
+     * and diffed as int arrays, so there is no limit on the number of unique lines.
+     * Line terminators ("\n", "\r\n" or "\r") are not compared and are rendered as "\n" in the result,
+     * the last line is left unterminated unless one of the texts ends with a line terminator.
+     * @param text1 Old string to be diffed.
+     * @param text2 New string to be diffed.
+     * @return Linked List of Diff objects.
+     */
+    public List<Diff> diffMainAtLineTokenLevel(final String text1, final String text2)
+    {
+        return diffMainAtLineTokenLevel(text1, text2, DiffAlgorithmType.auto);
+    }
+
+    /**
+     * Find the differences between two texts at line level using the given diff algorithm,
+     * see {@link #diffMainAtLineTokenLevel(String, String)}.
+     * @param text1 Old string to be diffed.
+     * @param text2 New string to be diffed.
+     * @param algorithmType Algorithm used to diff the lines.
+     * @return Linked List of Diff objects.
+     */
+    public List<Diff> diffMainAtLineTokenLevel(final String text1, final String text2, final DiffAlgorithmType algorithmType)
+    {
+        TokenTable tokenTable = new TokenTable();
+        TokenizedText tokens1 = LineTokenizer.tokenize(text1, tokenTable);
+        TokenizedText tokens2 = LineTokenizer.tokenize(text2, tokenTable);
+        return diffMainAtLineTokenLevel(tokens1, tokens2, algorithmType);
+    }
+
+    /**
+     * Find the differences between two already tokenized texts at line level using the given diff algorithm,
+     * see {@link #diffMainAtLineTokenLevel(String, String)}.
+     * @param tokens1 Old text to be diffed.
+     * @param tokens2 New text to be diffed, tokenized with the same {@link TokenTable}.
+     * @param algorithmType Algorithm used to diff the lines.
+     * @return Linked List of Diff objects.
+     */
+    public List<Diff> diffMainAtLineTokenLevel(final TokenizedText tokens1, final TokenizedText tokens2, final DiffAlgorithmType algorithmType)
+    {
+        return diffFromLineDiff(diffLineTokens(tokens1, tokens2, algorithmType));
+    }
+
+    /**
+     * Find the differences between two already tokenized texts at line level using the given diff algorithm.
+     * @param tokens1 Old text to be diffed.
+     * @param tokens2 New text to be diffed, tokenized with the same {@link TokenTable}.
+     * @param algorithmType Algorithm used to diff the lines.
+     * @return Line diff, see {@link #diffFromLineDiff(LineDiff)}.
+     */
+    public LineDiff diffLineTokens(final TokenizedText tokens1, final TokenizedText tokens2, final DiffAlgorithmType algorithmType)
+    {
+        diffMode = DiffMode.LINE_LEVEL;
+
+        long deadline;
+        if (diffTimeout <= 0) {
+            deadline = Long.MAX_VALUE;
+        } else {
+            deadline = System.currentTimeMillis() + (long) (diffTimeout * 1000);
+        }
+        return LineDiff.compute(tokens1, tokens2, algorithmType, deadline);
+    }
+
+    /**
+     * Find the differences between two already tokenized texts at line level, the time available is taken from
+     * the given budget (shared with other diffs) instead of diffTimeout.
+     * @param tokens1 Old text to be diffed.
+     * @param tokens2 New text to be diffed, tokenized with the same {@link TokenTable}.
+     * @param algorithmType Algorithm used to diff the lines.
+     * @param budget Time budget, the time spent is subtracted from it while the diff runs.
+     * @return Line diff, see {@link #diffFromLineDiff(LineDiff)}.
+     */
+    public LineDiff diffLineTokens(final TokenizedText tokens1, final TokenizedText tokens2, final DiffAlgorithmType algorithmType, final DiffBudget budget)
+    {
+        diffMode = DiffMode.LINE_LEVEL;
+
+        return LineDiff.compute(tokens1, tokens2, algorithmType, budget);
+    }
+
+    /**
+     * Convert a line diff to a list of Diff objects, consecutive lines with the same operation are joined.
+     * @param lineDiff Line diff.
+     * @return Linked List of Diff objects.
+     */
+    public List<Diff> diffFromLineDiff(final LineDiff lineDiff)
+    {
+        LinkedList<Diff> diffs = new LinkedList<Diff>();
+        TokenizedText first = lineDiff.first();
+        TokenizedText second = lineDiff.second();
+        EditScript editScript = lineDiff.editScript();
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < editScript.size(); k++)
+        {
+            byte operation = editScript.operation(k);
+            if (operation == EditScript.EQUAL)
+            {
+                diffs.add(new Diff(DiffOperation.EQUAL, lines(second, editScript.secondStart(k), editScript.secondEnd(k), text)));
+                continue;
+            }
+            if (operation != EditScript.INSERT) {
+                diffs.add(new Diff(DiffOperation.DELETE, lines(first, editScript.firstStart(k), editScript.firstEnd(k), text)));
+            }
+            if (operation != EditScript.DELETE) {
+                diffs.add(new Diff(DiffOperation.INSERT, lines(second, editScript.secondStart(k), editScript.secondEnd(k), text)));
+            }
+        }
+        // Every line was closed by '\n', remove it again if the text did not end with a line terminator.
+        boolean lastLineTerminated = (first.size() > 0 && first.hasTerminator(first.size() - 1)) || (second.size() > 0 && second.hasTerminator(second.size() - 1));
+        if (!diffs.isEmpty() && !lastLineTerminated)
+        {
+            Diff lastDiff = diffs.getLast();
+            lastDiff.setText(lastDiff.getText().substring(0, lastDiff.getText().length() - 1));
+        }
+        return diffs;
+    }
+
+    private static String lines(final TokenizedText tokens, final int start, final int end, final StringBuilder text)
+    {
+        text.setLength(0);
+        for (int line = start; line < end; line++) {
+            tokens.appendLine(text, line);
+        }
+        return text.toString();
+    }
+
     /**
      * Find the differences between two texts.
      * Run a faster, slightly less optimal diff.
@@ -1074,16 +1203,18 @@ public class TextDiffMatchPatch
                 lineOrWordEnd = text.indexOf('\n', lineOrWordStart);
             } else
             {
-                Matcher m = WORD_SEPARATOR_PATTERN.matcher(text);
-                m.region(lineOrWordStart, text.length());
-
-                if (m.find())
+                // single pass scan, no regular expression is matched at every position
+                lineOrWordEnd = -1;
+                for (int i = lineOrWordStart; i < text.length(); i++)
                 {
-                    lineOrWordEnd = m.start();
-                    separator = m.group();
-                    separatorLength = m.end() - m.start();
-                } else {
-                    lineOrWordEnd = -1;
+                    int separatorEnd = WordTokenizer.separatorEnd(text, i, text.length());
+                    if (separatorEnd > i)
+                    {
+                        lineOrWordEnd = i;
+                        separator = text.substring(i, separatorEnd);
+                        separatorLength = separatorEnd - i;
+                        break;
+                    }
                 }
             }
             if (lineOrWordEnd == -1) {
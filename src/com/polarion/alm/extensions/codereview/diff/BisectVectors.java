@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Per thread pool of the V-arrays of {@link MyersDiffAlgorithm}. A thread bisects one range at a time, so the two
+ * arrays are reused by all bisections of all diffs computed by the thread and grow up to the memory budget set by the
+ * {@value #PROPERTY_MEMORY} system property (in MB, per thread). Softly referenced, so idle threads do not pin them.
+ */
+@SuppressWarnings("nls")
+final class BisectVectors {
+
+    static final String PROPERTY_MEMORY = "com.polarion.alm.extensions.codereview.diffMemory";
+    private static final long DEFAULT_MEMORY_MB = 16;
+
+    // two int arrays
+    private static final int maxLength = (int) Math.min(Integer.MAX_VALUE - 8, Long.getLong(PROPERTY_MEMORY, DEFAULT_MEMORY_MB) * 1024 * 1024 / 8);
+
+    private static final ThreadLocal<SoftReference<BisectVectors>> pool = new ThreadLocal<>();
+
+    final int[] v1;
+    final int[] v2;
+
+    private BisectVectors(int length) {
+        v1 = new int[length];
+        v2 = new int[length];
+    }
+
+    /**
+     * @return vectors of at least the given length with the first length entries set to -1, null if they would
+     *     exceed the memory budget
+     */
+    static @Nullable BisectVectors acquire(int length) {
+        if (length > maxLength) {
+            return null;
+        }
+        SoftReference<BisectVectors> reference = pool.get();
+        BisectVectors vectors = reference == null ? null : reference.get();
+        if (vectors == null || vectors.v1.length < length) {
+            // grow geometrically, bisections of one diff get smaller but the next diff may be larger
+            int capacity = vectors == null ? length : (int) Math.min(maxLength, Math.max(length, 2L * vectors.v1.length));
+            vectors = new BisectVectors(capacity);
+            pool.set(new SoftReference<>(vectors));
+        }
+        Arrays.fill(vectors.v1, 0, length, -1);
+        Arrays.fill(vectors.v2, 0, length, -1);
+        return vectors;
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface DiffAlgorithm {
+
+    /**
+     * Marks the tokens of first[firstStart, firstEnd) and second[secondStart, secondEnd) which are not part of
+     * the common subsequence of both ranges as changed in the given state.
+     */
+    void diff(@NotNull DiffState state, int firstStart, int firstEnd, int secondStart, int secondEnd);
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.BitSet;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Diff algorithms selectable by the "diffAlgorithm" configuration property.
+ */
+public enum DiffAlgorithmType {
+    auto, myers, histogram, patience;
+
+    // up to this number of lines (both texts together) the minimal Myers diff is cheap enough
+    private static final int SMALL_INPUT_LINES = 2000;
+    // share of lines which repeat an earlier line of the same text, above it (in either text) the histogram diff is used instead
+    // of the patience diff
+    private static final double REPEATED_LINES_THRESHOLD = 0.2;
+
+    public @NotNull DiffAlgorithm select(@NotNull TokenizedText first, @NotNull TokenizedText second) {
+        switch (this) {
+        case myers:
+            return new MyersDiffAlgorithm();
+        case histogram:
+            return new HistogramDiffAlgorithm();
+        case patience:
+            return new PatienceDiffAlgorithm();
+        case auto:
+        default:
+            int lines = first.size() + second.size();
+            if (lines <= SMALL_INPUT_LINES) {
+                return new MyersDiffAlgorithm();
+            }
+            double repeatedLines = Math.max(repeatedLines(first), repeatedLines(second));
+            return repeatedLines > REPEATED_LINES_THRESHOLD ? new HistogramDiffAlgorithm() : new PatienceDiffAlgorithm();
+        }
+    }
+
+    /**
+     * @return share of the lines of the text which repeat an earlier line of it
+     */
+    private static double repeatedLines(@NotNull TokenizedText text) {
+        if (text.size() == 0) {
+            return 0;
+        }
+        BitSet seen = new BitSet();
+        for (int i = 0; i < text.size(); i++) {
+            seen.set(text.token(i));
+        }
+        return 1.0 - (double) seen.cardinality() / text.size();
+    }
+
+    public static @NotNull DiffAlgorithmType parse(@NotNull String s) {
+        return valueOf(s.trim());
+    }
+
+}
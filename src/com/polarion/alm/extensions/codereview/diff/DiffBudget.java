@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time available for diffing all files of one request. Running diffs subtract the time they spend whenever they check
+ * their deadline (see {@link DiffState#deadlineReached()}), so diffs running in parallel draw from the same remaining
+ * time and together use no more than the budget. Once the budget is exhausted diffs fall back to
+ * {@link UniqueLineDiffAlgorithm}.
+ */
+public final class DiffBudget {
+
+    private final long totalNanos;
+    private final AtomicLong remainingNanos;
+
+    public DiffBudget(long millis) {
+        totalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        remainingNanos = new AtomicLong(totalNanos);
+    }
+
+    public void consume(long nanos) {
+        remainingNanos.addAndGet(-nanos);
+    }
+
+    public boolean isExhausted() {
+        return remainingNanos.get() <= 0;
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getUsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos - remainingNanos.get());
+    }
+
+}
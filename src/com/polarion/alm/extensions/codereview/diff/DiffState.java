@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Token sequences being diffed together with the result of the diff: lines of the first sequence
+ * marked as deleted and lines of the second sequence marked as inserted.
+ */
+public final class DiffState {
+
+    private final int[] first;
+    private final int firstSize;
+    private final int[] second;
+    private final int secondSize;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    private final long deadline;
+    private final @Nullable DiffBudget budget;
+    private long charged = System.nanoTime();
+    private int vocabularySize = -1;
+    private boolean degraded;
+
+    DiffState(@NotNull TokenizedText first, @NotNull TokenizedText second, long deadline, @Nullable DiffBudget budget) {
+        this.first = first.tokens();
+        firstSize = first.size();
+        this.second = second.tokens();
+        secondSize = second.size();
+        deleted = new boolean[firstSize];
+        inserted = new boolean[secondSize];
+        this.deadline = deadline;
+        this.budget = budget;
+    }
+
+    public int[] first() {
+        return first;
+    }
+
+    public int firstSize() {
+        return firstSize;
+    }
+
+    public int[] second() {
+        return second;
+    }
+
+    public int secondSize() {
+        return secondSize;
+    }
+
+    /**
+     * @return upper bound (exclusive) of token ids used in both sequences
+     */
+    public int vocabularySize() {
+        if (vocabularySize < 0) {
+            vocabularySize = vocabularySize(first, firstSize, second, secondSize);
+        }
+        return vocabularySize;
+    }
+
+    static int vocabularySize(int[] first, int firstSize, int[] second, int secondSize) {
+        int max = -1;
+        for (int i = 0; i < firstSize; i++) {
+            max = Math.max(max, first[i]);
+        }
+        for (int i = 0; i < secondSize; i++) {
+            max = Math.max(max, second[i]);
+        }
+        return max + 1;
+    }
+
+    /**
+     * @return true if the deadline is over or the budget exhausted, the time spent since the last call is subtracted from
+     *         the budget first
+     */
+    public boolean deadlineReached() {
+        if (budget != null) {
+            chargeBudget();
+            return budget.isExhausted();
+        }
+        return System.currentTimeMillis() > deadline;
+    }
+
+    void chargeBudget() {
+        if (budget != null) {
+            long now = System.nanoTime();
+            budget.consume(now - charged);
+            charged = now;
+        }
+    }
+
+    /**
+     * Diffs the ranges with the linear time {@link UniqueLineDiffAlgorithm}, used by the algorithms once the deadline
+     * was reached. The result is flagged as degraded.
+     */
+    public void fallback(int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        degraded = true;
+        new UniqueLineDiffAlgorithm().diff(this, firstStart, firstEnd, secondStart, secondEnd);
+    }
+
+    boolean isDegraded() {
+        return degraded;
+    }
+
+    public void markChanged(int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        for (int i = firstStart; i < firstEnd; i++) {
+            deleted[i] = true;
+        }
+        for (int j = secondStart; j < secondEnd; j++) {
+            inserted[j] = true;
+        }
+    }
+
+    /**
+     * Sets or clears the deleted (first text) or inserted (second text) flags of the range.
+     */
+    void setChanged(boolean second, int start, int end, boolean changed) {
+        boolean[] flags = second ? inserted : deleted;
+        for (int i = start; i < end; i++) {
+            flags[i] = changed;
+        }
+    }
+
+    boolean isDeleted(int firstLine) {
+        return deleted[firstLine];
+    }
+
+    boolean isInserted(int secondLine) {
+        return inserted[secondLine];
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Result of a {@link LineDiff} as a list of operations kept in parallel primitive arrays. Every operation covers the
+ * token range [firstStart, firstStart + firstLength) of the first and [secondStart, secondStart + secondLength) of the
+ * second text, ranges of consecutive operations are adjacent. Nothing is copied out of the texts.
+ */
+public final class EditScript {
+
+    /** Ranges of both texts are equal (and of the same length). */
+    public static final byte EQUAL = 0;
+    /** Range of the first text was removed, second range is empty. */
+    public static final byte DELETE = 1;
+    /** Range of the second text was added, first range is empty. */
+    public static final byte INSERT = 2;
+    /** Range of the first text was replaced by the range of the second text. */
+    public static final byte REPLACE = 3;
+
+    private final byte[] operations;
+    private final int[] firstStarts;
+    private final int[] firstLengths;
+    private final int[] secondStarts;
+    private final int[] secondLengths;
+    private final int size;
+
+    private EditScript(byte[] operations, int[] firstStarts, int[] firstLengths, int[] secondStarts, int[] secondLengths, int size) {
+        this.operations = operations;
+        this.firstStarts = firstStarts;
+        this.firstLengths = firstLengths;
+        this.secondStarts = secondStarts;
+        this.secondLengths = secondLengths;
+        this.size = size;
+    }
+
+    static @NotNull EditScript of(@NotNull DiffState state) {
+        Builder builder = new Builder();
+        int firstSize = state.firstSize();
+        int secondSize = state.secondSize();
+        int i = 0;
+        int j = 0;
+        while (i < firstSize || j < secondSize) {
+            int firstStart = i;
+            int secondStart = j;
+            while (i < firstSize && state.isDeleted(i)) {
+                i++;
+            }
+            while (j < secondSize && state.isInserted(j)) {
+                j++;
+            }
+            if (i > firstStart || j > secondStart) {
+                builder.add(j == secondStart ? DELETE : i == firstStart ? INSERT : REPLACE, firstStart, i, secondStart, j);
+            } else {
+                while (i < firstSize && j < secondSize && !state.isDeleted(i) && !state.isInserted(j)) {
+                    i++;
+                    j++;
+                }
+                builder.add(EQUAL, firstStart, i, secondStart, j);
+            }
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte operation(int index) {
+        return operations[index];
+    }
+
+    public int firstStart(int index) {
+        return firstStarts[index];
+    }
+
+    public int firstLength(int index) {
+        return firstLengths[index];
+    }
+
+    public int firstEnd(int index) {
+        return firstStarts[index] + firstLengths[index];
+    }
+
+    public int secondStart(int index) {
+        return secondStarts[index];
+    }
+
+    public int secondLength(int index) {
+        return secondLengths[index];
+    }
+
+    public int secondEnd(int index) {
+        return secondStarts[index] + secondLengths[index];
+    }
+
+    /**
+     * @return approximate number of bytes retained by this instance
+     */
+    public long estimateSize() {
+        return 17L * operations.length;
+    }
+
+    private static final class Builder {
+
+        private byte[] operations = new byte[16];
+        private int[] firstStarts = new int[16];
+        private int[] firstLengths = new int[16];
+        private int[] secondStarts = new int[16];
+        private int[] secondLengths = new int[16];
+        private int size;
+
+        void add(byte operation, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+            if (size == operations.length) {
+                int capacity = size * 2;
+                operations = Arrays.copyOf(operations, capacity);
+                firstStarts = Arrays.copyOf(firstStarts, capacity);
+                firstLengths = Arrays.copyOf(firstLengths, capacity);
+                secondStarts = Arrays.copyOf(secondStarts, capacity);
+                secondLengths = Arrays.copyOf(secondLengths, capacity);
+            }
+            operations[size] = operation;
+            firstStarts[size] = firstStart;
+            firstLengths[size] = firstEnd - firstStart;
+            secondStarts[size] = secondStart;
+            secondLengths[size] = secondEnd - secondStart;
+            size++;
+        }
+
+        @NotNull
+        EditScript build() {
+            return new EditScript(Arrays.copyOf(operations, size), Arrays.copyOf(firstStarts, size), Arrays.copyOf(firstLengths, size), Arrays.copyOf(secondStarts, size),
+                    Arrays.copyOf(secondLengths, size), size);
+        }
+
+    }
+
+}
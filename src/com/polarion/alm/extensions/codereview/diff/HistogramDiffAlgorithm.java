@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Histogram diff (as known from JGit/Git): anchors the diff on the longest common run which contains the least frequent
+ * lines of the first text, then repeats on both sides of the anchor. Lines repeated very often (braces, blank lines, imports)
+ * are never used as anchors, regions without a usable anchor are handed over to {@link MyersDiffAlgorithm}.
+ */
+public final class HistogramDiffAlgorithm implements DiffAlgorithm {
+
+    private static final int MAX_CHAIN_LENGTH = 64;
+
+    private final @NotNull DiffAlgorithm fallback = new MyersDiffAlgorithm();
+
+    @Override
+    public void diff(@NotNull DiffState state, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        int[] counts = new int[state.vocabularySize()];
+        // last occurrence (+1) of the token in the current region of the first text, 0 for none
+        int[] heads = new int[state.vocabularySize()];
+        // previous occurrence (+1) of the same token, 0 for none
+        int[] previous = new int[state.firstSize()];
+
+        RegionStack regions = new RegionStack();
+        regions.push(firstStart, firstEnd, secondStart, secondEnd);
+        while (!regions.isEmpty()) {
+            regions.pop();
+            int aStart = regions.get(0);
+            int aEnd = regions.get(1);
+            int bStart = regions.get(2);
+            int bEnd = regions.get(3);
+
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                state.markChanged(aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+            if (state.deadlineReached()) {
+                state.fallback(aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+
+            for (int i = aStart; i < aEnd; i++) {
+                int token = a[i];
+                counts[token]++;
+                previous[i] = heads[token];
+                heads[token] = i + 1;
+            }
+
+            int bestCount = Integer.MAX_VALUE;
+            int bestLength = 0;
+            int bestAStart = -1;
+            int bestBStart = -1;
+            int j = bStart;
+            while (j < bEnd) {
+                int nextJ = j + 1;
+                int count = counts[b[j]];
+                if (count > 0 && count <= MAX_CHAIN_LENGTH) {
+                    for (int occurrence = heads[b[j]]; occurrence != 0; occurrence = previous[occurrence - 1]) {
+                        int matchAStart = occurrence - 1;
+                        int matchBStart = j;
+                        int matchAEnd = matchAStart + 1;
+                        int matchBEnd = j + 1;
+                        int matchCount = count;
+                        while (matchAStart > aStart && matchBStart > bStart && a[matchAStart - 1] == b[matchBStart - 1]) {
+                            matchAStart--;
+                            matchBStart--;
+                            matchCount = Math.min(matchCount, counts[a[matchAStart]]);
+                        }
+                        while (matchAEnd < aEnd && matchBEnd < bEnd && a[matchAEnd] == b[matchBEnd]) {
+                            matchCount = Math.min(matchCount, counts[a[matchAEnd]]);
+                            matchAEnd++;
+                            matchBEnd++;
+                        }
+                        int matchLength = matchAEnd - matchAStart;
+                        if (matchCount < bestCount || (matchCount == bestCount && matchLength > bestLength)) {
+                            bestCount = matchCount;
+                            bestLength = matchLength;
+                            bestAStart = matchAStart;
+                            bestBStart = matchBStart;
+                        }
+                        if (matchBEnd > nextJ) {
+                            nextJ = matchBEnd;
+                        }
+                    }
+                }
+                j = nextJ;
+            }
+
+            for (int i = aStart; i < aEnd; i++) {
+                counts[a[i]] = 0;
+                heads[a[i]] = 0;
+            }
+
+            if (bestAStart < 0) {
+                fallback.diff(state, aStart, aEnd, bStart, bEnd);
+            } else {
+                regions.push(aStart, bestAStart, bStart, bestBStart);
+                regions.push(bestAStart + bestLength, aEnd, bestBStart + bestLength, bEnd);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Objects;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Line level diff of two {@link TokenizedText}s. The result is kept as one "changed" flag per line of each side,
+ * lines without the flag are common to both texts and appear in the same order. The same result is available as
+ * an {@link EditScript} for rendering.
+ */
+public final class LineDiff {
+
+    private final @NotNull TokenizedText first;
+    private final @NotNull TokenizedText second;
+    private final @NotNull DiffState state;
+    private @Nullable EditScript editScript;
+
+    private LineDiff(@NotNull TokenizedText first, @NotNull TokenizedText second, long deadline, @Nullable DiffBudget budget) {
+        this.first = first;
+        this.second = second;
+        state = new DiffState(first, second, deadline, budget);
+    }
+
+    /**
+     * @param deadline time (in ms) after which the remaining differences are only approximated, see {@link #isDegraded()}
+     */
+    public static @NotNull LineDiff compute(@NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull DiffAlgorithm algorithm, long deadline) {
+        return new LineDiff(first, second, deadline, null).compute(algorithm);
+    }
+
+    public static @NotNull LineDiff compute(@NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull DiffAlgorithmType algorithmType, long deadline) {
+        return compute(first, second, algorithmType.select(first, second), deadline);
+    }
+
+    /**
+     * @param budget time budget the time spent is subtracted from while the diff runs, diffs running in parallel draw
+     *            from it together; the remaining differences are only approximated once it is exhausted
+     */
+    public static @NotNull LineDiff compute(@NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull DiffAlgorithm algorithm, @NotNull DiffBudget budget) {
+        return new LineDiff(first, second, Long.MAX_VALUE, budget).compute(algorithm);
+    }
+
+    public static @NotNull LineDiff compute(@NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull DiffAlgorithmType algorithmType, @NotNull DiffBudget budget) {
+        return compute(first, second, algorithmType.select(first, second), budget);
+    }
+
+    /**
+     * Restores the diff of the two texts from its edit script, e.g. one computed earlier for the same texts.
+     *
+     * @return the diff or null if the edit script does not cover exactly both texts
+     */
+    public static @Nullable LineDiff of(@NotNull TokenizedText first, @NotNull TokenizedText second, @NotNull EditScript editScript) {
+        int size = editScript.size();
+        if ((size > 0 ? editScript.firstEnd(size - 1) : 0) != first.size() || (size > 0 ? editScript.secondEnd(size - 1) : 0) != second.size()) {
+            return null;
+        }
+        LineDiff lineDiff = new LineDiff(first, second, Long.MAX_VALUE, null);
+        for (int i = 0; i < size; i++) {
+            if (editScript.operation(i) != EditScript.EQUAL) {
+                lineDiff.state.markChanged(editScript.firstStart(i), editScript.firstEnd(i), editScript.secondStart(i), editScript.secondEnd(i));
+            }
+        }
+        lineDiff.editScript = editScript;
+        return lineDiff;
+    }
+
+    private @NotNull LineDiff compute(@NotNull DiffAlgorithm algorithm) {
+        algorithm.diff(state, 0, first.size(), 0, second.size());
+        state.chargeBudget();
+        editScript = EditScript.of(state);
+        return this;
+    }
+
+    /**
+     * Shifts single insertions and deletions to better aligned positions, see {@link SemanticCleanup}. Meant for word
+     * diffs, the boundaries of words are scored.
+     */
+    public @NotNull LineDiff cleanupSemanticLossless() {
+        if (SemanticCleanup.cleanupLossless(state, editScript(), first, second)) {
+            editScript = EditScript.of(state);
+        }
+        return this;
+    }
+
+    public @NotNull TokenizedText first() {
+        return first;
+    }
+
+    public @NotNull TokenizedText second() {
+        return second;
+    }
+
+    public @NotNull EditScript editScript() {
+        return Objects.requireNonNull(editScript);
+    }
+
+    /**
+     * @return true if the deadline was reached and (part of) the diff was computed by {@link UniqueLineDiffAlgorithm}
+     */
+    public boolean isDegraded() {
+        return state.isDegraded();
+    }
+
+    public boolean isDeleted(int firstLine) {
+        return state.isDeleted(firstLine);
+    }
+
+    public boolean isInserted(int secondLine) {
+        return state.isInserted(secondLine);
+    }
+
+}
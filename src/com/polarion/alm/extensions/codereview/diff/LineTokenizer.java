@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Splits text into lines (terminated by "\n", "\r\n" or "\r") and interns them into a {@link TokenTable}.
+ * Line terminators are not part of the token, so the same line with different terminators gets the same id.
+ */
+public final class LineTokenizer {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private LineTokenizer() {
+    }
+
+    public static @NotNull TokenizedText tokenize(@NotNull CharSequence text, @NotNull TokenTable table) {
+        int length = text.length();
+        Lines lines = new Lines(Math.max(16, length / 32));
+        int start = 0;
+        int hash = 0;
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                lines.add(start, i, hash);
+                i++;
+                if (c == '\r' && i < length && text.charAt(i) == '\n') {
+                    i++;
+                }
+                start = i;
+                hash = 0;
+            } else {
+                hash = 31 * hash + c;
+                i++;
+            }
+        }
+        if (start < length) {
+            lines.add(start, length, hash);
+        }
+        return lines.intern(text, length, table);
+    }
+
+    /**
+     * Decodes the stream and splits it into lines in a single pass, the decoded characters are kept in one growing
+     * buffer shared by all lines (no String is created for the content). The stream is closed.
+     */
+    public static @NotNull TokenizedText tokenize(@NotNull InputStream stream, @NotNull Charset charset, @NotNull TokenTable table) throws IOException {
+        char[] chars = new char[INITIAL_BUFFER_SIZE];
+        int length = 0;
+        Lines lines = new Lines(INITIAL_BUFFER_SIZE / 32);
+        int start = 0;
+        int hash = 0;
+        int i = 0;
+        try (Reader reader = new InputStreamReader(stream, charset)) {
+            boolean endOfStream = false;
+            while (!endOfStream) {
+                if (length == chars.length) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+                int read = reader.read(chars, length, chars.length - length);
+                if (read < 0) {
+                    endOfStream = true;
+                } else {
+                    length += read;
+                }
+                while (i < length) {
+                    char c = chars[i];
+                    if (c == '\n') {
+                        lines.add(start, i, hash);
+                        i++;
+                        start = i;
+                        hash = 0;
+                    } else if (c == '\r') {
+                        if (i + 1 == length && !endOfStream) {
+                            // "\r\n" may be split between two reads, decide after the next one
+                            break;
+                        }
+                        lines.add(start, i, hash);
+                        i++;
+                        if (i < length && chars[i] == '\n') {
+                            i++;
+                        }
+                        start = i;
+                        hash = 0;
+                    } else {
+                        hash = 31 * hash + c;
+                        i++;
+                    }
+                }
+            }
+        }
+        if (start < length) {
+            lines.add(start, length, hash);
+        }
+        return lines.intern(CharBuffer.wrap(chars, 0, length), chars.length, table);
+    }
+
+    /**
+     * Line (or word) boundaries and hashes collected before interning, interning needs the final text.
+     */
+    static final class Lines {
+
+        private int[] starts;
+        private int[] contentEnds;
+        private int[] hashes;
+        private int size;
+
+        Lines(int capacity) {
+            starts = new int[capacity];
+            contentEnds = new int[capacity];
+            hashes = new int[capacity];
+        }
+
+        void add(int start, int contentEnd, int hash) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                contentEnds = Arrays.copyOf(contentEnds, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            starts[size] = start;
+            contentEnds[size] = contentEnd;
+            hashes[size] = hash;
+            size++;
+        }
+
+        @NotNull
+        TokenizedText intern(@NotNull CharSequence text, int retainedChars, @NotNull TokenTable table) {
+            // hashes are not needed any more, their array is reused for the tokens
+            int[] tokens = hashes;
+            for (int i = 0; i < size; i++) {
+                tokens[i] = table.intern(text, starts[i], contentEnds[i], hashes[i]);
+            }
+            return new TokenizedText(text, retainedChars, tokens, starts, contentEnds, size);
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bottom-k MinHash sketch of the line shingles (runs of {@value #SHINGLE_LINES} consecutive lines) of a text, used to
+ * estimate how similar two files are without diffing them. Whitespace and blank lines are ignored, so re-indented
+ * files still match. The sketch has a fixed size whatever the size of the file.
+ */
+public final class MinHashSketch {
+
+    private static final int SHINGLE_LINES = 3;
+    private static final int SIZE = 128;
+
+    public static final MinHashSketch EMPTY = new MinHashSketch(new long[0]);
+
+    // sorted ascending, distinct
+    private final long[] values;
+
+    private MinHashSketch(long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Reads the stream in one pass, no content is retained. The stream is closed.
+     *
+     * @param maxChars reading stops after this number of characters
+     * @return sketch of the lines, {@link #EMPTY} if the stream has more than maxChars characters or a NUL character
+     *         (binary content)
+     */
+    public static @NotNull MinHashSketch of(@NotNull InputStream stream, @NotNull Charset charset, long maxChars) throws IOException {
+        Builder builder = new Builder();
+        char[] buffer = new char[8 * 1024];
+        long lineHash = 0;
+        boolean blank = true;
+        long total = 0;
+        try (Reader reader = new InputStreamReader(stream, charset)) {
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                total += read;
+                if (total > maxChars) {
+                    return EMPTY;
+                }
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (c == 0) {
+                        return EMPTY;
+                    } else if (c == '\n' || c == '\r') {
+                        if (!blank) {
+                            builder.addLine(lineHash);
+                        }
+                        lineHash = 0;
+                        blank = true;
+                    } else if (!Character.isWhitespace(c)) {
+                        lineHash = 31 * lineHash + c;
+                        blank = false;
+                    }
+                }
+            }
+        }
+        if (!blank) {
+            builder.addLine(lineHash);
+        }
+        return builder.build();
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    /**
+     * @return values of the sketch, two sketches can only be similar if they share at least one of them
+     */
+    public long[] values() {
+        return values;
+    }
+
+    /**
+     * @return estimated Jaccard similarity (0 - 1) of the shingle sets of both texts
+     */
+    public double similarity(@NotNull MinHashSketch other) {
+        // the SIZE smallest values of the union are a random sample of it, count how many of them are in both sets
+        int i = 0;
+        int j = 0;
+        int sampled = 0;
+        int common = 0;
+        while (sampled < SIZE && (i < values.length || j < other.values.length)) {
+            if (j == other.values.length || (i < values.length && values[i] < other.values[j])) {
+                i++;
+            } else if (i == values.length || values[i] > other.values[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+            sampled++;
+        }
+        return sampled == 0 ? 0 : (double) common / sampled;
+    }
+
+    private static final class Builder {
+
+        private final long[] window = new long[SHINGLE_LINES];
+        private int lines;
+        private final long[] values = new long[SIZE];
+        private int size;
+
+        void addLine(long lineHash) {
+            window[lines % SHINGLE_LINES] = lineHash;
+            lines++;
+            if (lines >= SHINGLE_LINES) {
+                addShingle(SHINGLE_LINES);
+            }
+        }
+
+        private void addShingle(int length) {
+            long hash = 0;
+            for (int k = lines - length; k < lines; k++) {
+                hash = 31 * hash + window[k % SHINGLE_LINES];
+            }
+            add(mix(hash));
+        }
+
+        private void add(long value) {
+            if (size == SIZE && value >= values[size - 1]) {
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            int moved = Math.min(size, SIZE - 1) - index;
+            System.arraycopy(values, index, values, index + 1, moved);
+            values[index] = value;
+            size = Math.min(size + 1, SIZE);
+        }
+
+        @NotNull
+        MinHashSketch build() {
+            if (lines > 0 && lines < SHINGLE_LINES) {
+                // short text, all its lines form the only shingle
+                addShingle(lines);
+            }
+            return new MinHashSketch(Arrays.copyOf(values, size));
+        }
+
+        private static long mix(long hash) {
+            // murmur3 64 bit finalizer, the bottom-k values must be spread uniformly
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Myers' O(ND) diff (with the linear space 'middle snake' refinement) running directly on token arrays.
+ * Same algorithm as {@code TextDiffMatchPatch.diffBisect}, but without the String/char round trip.
+ * The working arrays come from a per thread pool ({@link BisectVectors}), ranges too large for its memory budget
+ * are diffed by the coarser {@link UniqueLineDiffAlgorithm} instead.
+ */
+public final class MyersDiffAlgorithm implements DiffAlgorithm {
+
+    @Override
+    public void diff(@NotNull DiffState state, int aStart, int aEnd, int bStart, int bEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+            aStart++;
+            bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            state.markChanged(aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        if (state.deadlineReached()) {
+            state.fallback(aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        if (aEnd - aStart == 1 || bEnd - bStart == 1) {
+            diffSingle(state, aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        BisectVectors vectors = BisectVectors.acquire(2 * ((aEnd - aStart + bEnd - bStart + 1) / 2));
+        if (vectors == null) {
+            state.fallback(aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        long split = bisect(state, vectors, aStart, aEnd, bStart, bEnd);
+        if (split < 0) {
+            if (state.deadlineReached()) {
+                state.fallback(aStart, aEnd, bStart, bEnd);
+            } else {
+                state.markChanged(aStart, aEnd, bStart, bEnd);
+            }
+            return;
+        }
+        int x = (int) (split >>> 32);
+        int y = (int) split;
+        if ((x == aStart && y == bStart) || (x == aEnd && y == bEnd)) {
+            // no progress possible, should not happen after prefix/suffix trimming
+            state.markChanged(aStart, aEnd, bStart, bEnd);
+            return;
+        }
+        diff(state, aStart, x, bStart, y);
+        diff(state, x, aEnd, y, bEnd);
+    }
+
+    /**
+     * One of the ranges has a single token, it either matches one token of the other range or nothing.
+     */
+    private static void diffSingle(@NotNull DiffState state, int aStart, int aEnd, int bStart, int bEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        if (aEnd - aStart == 1) {
+            for (int j = bStart; j < bEnd; j++) {
+                if (a[aStart] == b[j]) {
+                    state.markChanged(aStart, aStart, bStart, j);
+                    state.markChanged(aEnd, aEnd, j + 1, bEnd);
+                    return;
+                }
+            }
+        } else {
+            for (int i = aStart; i < aEnd; i++) {
+                if (a[i] == b[bStart]) {
+                    state.markChanged(aStart, i, bStart, bStart);
+                    state.markChanged(i + 1, aEnd, bEnd, bEnd);
+                    return;
+                }
+            }
+        }
+        state.markChanged(aStart, aEnd, bStart, bEnd);
+    }
+
+    /**
+     * @return absolute split point packed as (x << 32 | y), or -1 when the deadline was reached
+     *     or the ranges have nothing in common
+     */
+    private static long bisect(@NotNull DiffState state, @NotNull BisectVectors vectors, int aStart, int aEnd, int bStart, int bEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int maxD = (n + m + 1) / 2;
+        int vOffset = maxD;
+        int vLength = 2 * maxD;
+        int[] v1 = vectors.v1;
+        int[] v2 = vectors.v2;
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = n - m;
+        // if the total number of tokens is odd, then the front path will collide with the reverse path
+        boolean front = delta % 2 != 0;
+        // offsets for start and end of k loop, prevents mapping of space beyond the grid
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            if (state.deadlineReached()) {
+                return -1;
+            }
+
+            // walk the front path one step
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = vOffset + k1;
+                int x1;
+                if (k1 == -d || k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1]) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aStart + x1] == b[bStart + y1]) {
+                    x1++;
+                    y1++;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = vOffset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+                        // mirror x2 onto top-left coordinate system
+                        int x2 = n - v2[k2Offset];
+                        if (x1 >= x2) {
+                            return pack(aStart + x1, bStart + y1);
+                        }
+                    }
+                }
+            }
+
+            // walk the reverse path one step
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = vOffset + k2;
+                int x2;
+                if (k2 == -d || k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1]) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aEnd - x2 - 1] == b[bEnd - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = vOffset + x1 - k1Offset;
+                        // mirror x2 onto top-left coordinate system
+                        x2 = n - x2;
+                        if (x1 >= x2) {
+                            return pack(aStart + x1, bStart + y1);
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+}
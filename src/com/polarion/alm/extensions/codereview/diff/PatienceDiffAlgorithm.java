@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Patience diff: anchors the diff on lines which occur exactly once in both texts, takes the longest increasing
+ * sequence of them as matches and repeats between the matches. Regions without unique common lines are handed over
+ * to {@link MyersDiffAlgorithm}.
+ */
+public final class PatienceDiffAlgorithm implements DiffAlgorithm {
+
+    private final @NotNull DiffAlgorithm fallback = new MyersDiffAlgorithm();
+
+    @Override
+    public void diff(@NotNull DiffState state, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        int[] firstCounts = new int[state.vocabularySize()];
+        int[] secondCounts = new int[state.vocabularySize()];
+        int[] firstPositions = new int[state.vocabularySize()];
+        int maxCandidates = Math.min(state.firstSize(), state.secondSize());
+        int[] candidateA = new int[maxCandidates];
+        int[] candidateB = new int[maxCandidates];
+        int[] tails = new int[maxCandidates];
+        int[] predecessors = new int[maxCandidates];
+
+        RegionStack regions = new RegionStack();
+        regions.push(firstStart, firstEnd, secondStart, secondEnd);
+        while (!regions.isEmpty()) {
+            regions.pop();
+            int aStart = regions.get(0);
+            int aEnd = regions.get(1);
+            int bStart = regions.get(2);
+            int bEnd = regions.get(3);
+
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd || bStart == bEnd) {
+                state.markChanged(aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+            if (state.deadlineReached()) {
+                state.fallback(aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+
+            for (int i = aStart; i < aEnd; i++) {
+                firstCounts[a[i]]++;
+                firstPositions[a[i]] = i;
+            }
+            for (int j = bStart; j < bEnd; j++) {
+                secondCounts[b[j]]++;
+            }
+            // lines unique in both regions, in the order of the second text
+            int candidates = 0;
+            for (int j = bStart; j < bEnd; j++) {
+                int token = b[j];
+                if (firstCounts[token] == 1 && secondCounts[token] == 1) {
+                    candidateA[candidates] = firstPositions[token];
+                    candidateB[candidates] = j;
+                    candidates++;
+                }
+            }
+            for (int i = aStart; i < aEnd; i++) {
+                firstCounts[a[i]] = 0;
+            }
+            for (int j = bStart; j < bEnd; j++) {
+                secondCounts[b[j]] = 0;
+            }
+
+            if (candidates == 0) {
+                fallback.diff(state, aStart, aEnd, bStart, bEnd);
+                continue;
+            }
+
+            // longest increasing subsequence of positions in the first text (patience sorting)
+            int piles = 0;
+            for (int c = 0; c < candidates; c++) {
+                int low = 0;
+                int high = piles;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (candidateA[tails[middle]] < candidateA[c]) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                predecessors[c] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = c;
+                if (low == piles) {
+                    piles++;
+                }
+            }
+
+            // walk the matches from the last one, pushing the gaps between them
+            int nextA = aEnd;
+            int nextB = bEnd;
+            for (int c = tails[piles - 1]; c >= 0; c = predecessors[c]) {
+                regions.push(candidateA[c] + 1, nextA, candidateB[c] + 1, nextB);
+                nextA = candidateA[c];
+                nextB = candidateB[c];
+            }
+            regions.push(aStart, nextA, bStart, nextB);
+        }
+    }
+
+}
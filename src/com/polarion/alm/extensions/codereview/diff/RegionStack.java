@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Arrays;
+
+/**
+ * Stack of pending (firstStart, firstEnd, secondStart, secondEnd) ranges, used instead of recursion
+ * so that long chains of anchors cannot overflow the thread stack.
+ */
+final class RegionStack {
+
+    private int[] values = new int[64];
+    private int size;
+
+    void push(int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        if (firstStart == firstEnd && secondStart == secondEnd) {
+            return;
+        }
+        if (size + 4 > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = firstStart;
+        values[size++] = firstEnd;
+        values[size++] = secondStart;
+        values[size++] = secondEnd;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes the top region, its bounds are then available through {@link #get(int)}.
+     */
+    void pop() {
+        size -= 4;
+    }
+
+    /**
+     * @param index 0 - firstStart, 1 - firstEnd, 2 - secondStart, 3 - secondEnd of the last popped region
+     */
+    int get(int index) {
+        return values[size + index];
+    }
+
+}
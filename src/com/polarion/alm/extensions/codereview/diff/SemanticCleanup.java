@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Token based port of {@code TextDiffMatchPatch.diffCleanupSemanticLossless}: single insertions or deletions
+ * surrounded by equalities are shifted sideways to the position with the best boundary score, e.g.
+ * "The c&lt;ins&gt;at c&lt;/ins&gt;ame." becomes "The &lt;ins&gt;cat &lt;/ins&gt;came.". The scores are the same,
+ * computed from the characters around the token boundaries.
+ * <p>
+ * Works on the changed flags of the {@link DiffState} in one pass over the {@link EditScript}. An edit only moves within
+ * its two neighbouring equalities, so every token is visited a bounded number of times and the cleanup is linear
+ * (the original concatenates strings at every step and walks a linked list back and forth).
+ */
+final class SemanticCleanup {
+
+    private SemanticCleanup() {
+    }
+
+    /**
+     * @return true if any edit was shifted, the edit script has to be rebuilt then
+     */
+    static boolean cleanupLossless(@NotNull DiffState state, @NotNull EditScript script, @NotNull TokenizedText first, @NotNull TokenizedText second) {
+        boolean changes = false;
+        // tokens of the previous equality taken by the edit before it (negative if it was given tokens)
+        int taken = 0;
+        for (int i = 1; i + 1 < script.size(); i++) {
+            byte operation = script.operation(i);
+            if (operation == EditScript.EQUAL) {
+                continue;
+            }
+            // the previous equality may have been used up by the previous edit
+            boolean surrounded = script.operation(i - 1) == EditScript.EQUAL && script.operation(i + 1) == EditScript.EQUAL && script.firstLength(i - 1) > taken;
+            if (!surrounded || operation == EditScript.REPLACE) {
+                taken = 0;
+                continue;
+            }
+            boolean insert = operation == EditScript.INSERT;
+            int[] tokens = insert ? state.second() : state.first();
+            TokenizedText text = insert ? second : first;
+            int equality1Start = (insert ? script.secondStart(i - 1) : script.firstStart(i - 1)) + taken;
+            int start = insert ? script.secondStart(i) : script.firstStart(i);
+            int end = insert ? script.secondEnd(i) : script.firstEnd(i);
+            int equality2End = insert ? script.secondEnd(i + 1) : script.firstEnd(i + 1);
+
+            // first, shift the edit left by the common suffix of the previous equality and the edit
+            int shift = 0;
+            while (start + shift > equality1Start && shift > start - end && tokens[start + shift - 1] == tokens[end + shift - 1]) {
+                shift--;
+            }
+            // second, step token by token right, looking for the best fit
+            int bestShift = shift;
+            int bestScore = score(text, start + shift, equality1Start, equality2End) + score(text, end + shift, equality1Start, equality2End);
+            while (end + shift < equality2End && tokens[start + shift] == tokens[end + shift]) {
+                shift++;
+                int score = score(text, start + shift, equality1Start, equality2End) + score(text, end + shift, equality1Start, equality2End);
+                // the >= encourages trailing rather than leading whitespace on edits
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestShift = shift;
+                }
+            }
+
+            if (bestShift != 0) {
+                state.setChanged(insert, start, end, false);
+                state.setChanged(insert, start + bestShift, end + bestShift, true);
+                changes = true;
+            }
+            taken = bestShift;
+        }
+        return changes;
+    }
+
+    /**
+     * Same scores as {@code TextDiffMatchPatch.diffCleanupSemanticScore}, from 6 (best) to 0 (worst).
+     */
+    private static int score(@NotNull TokenizedText text, int boundary, int regionStart, int regionEnd) {
+        if (boundary == regionStart || boundary == regionEnd) {
+            // edges are the best
+            return 6;
+        }
+        CharSequence chars = text.text();
+        int before = boundary - 1;
+        boolean lineBreak1 = isTerminated(text, before);
+        char char1 = lineBreak1 ? '\n' : chars.charAt(text.contentEnd(before) - 1);
+        boolean lineBreak2 = text.lineStart(boundary) == text.contentEnd(boundary);
+        char char2 = lineBreak2 ? '\n' : chars.charAt(text.lineStart(boundary));
+        boolean nonAlphaNumeric1 = !Character.isLetterOrDigit(char1);
+        boolean nonAlphaNumeric2 = !Character.isLetterOrDigit(char2);
+        boolean wordSeparator1 = lineBreak1 || WordTokenizer.isSeparator(char1) || char1 == '.';
+        boolean wordSeparator2 = lineBreak2 || WordTokenizer.isSeparator(char2) || char2 == '.';
+        boolean blankLine1 = lineBreak1 && text.lineStart(before) == text.contentEnd(before);
+        boolean blankLine2 = lineBreak2 && boundary + 1 < regionEnd && isTerminated(text, boundary + 1) && text.lineStart(boundary + 1) == text.contentEnd(boundary + 1);
+
+        if (blankLine1 || blankLine2) {
+            // five points for blank lines
+            return 5;
+        } else if (lineBreak1 || lineBreak2) {
+            // four points for line breaks
+            return 4;
+        } else if (nonAlphaNumeric1 && !wordSeparator1 && wordSeparator2) {
+            // three points for end of sentences
+            return 3;
+        } else if (wordSeparator1 || wordSeparator2) {
+            // two points for word separators (space, semicolon, punctuation sign...)
+            return 2;
+        } else if (nonAlphaNumeric1 || nonAlphaNumeric2) {
+            // one point for non-alphanumeric
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if a line terminator follows the token, never the case between words
+     */
+    private static boolean isTerminated(@NotNull TokenizedText text, int token) {
+        return token + 1 < text.size() ? text.contentEnd(token) < text.lineStart(token + 1) : text.hasTerminator(token);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interns text regions into dense int ids using a primitive open-addressing hash table.
+ * Regions are referenced by (text, start, end) so no substrings are created while interning. Regions are compared
+ * according to the {@link WhitespaceMode} of the table, so lines differing only in ignored whitespace share one id.
+ */
+public final class TokenTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] slots;
+    private int mask;
+
+    private int[] hashes;
+    private CharSequence[] texts;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    private final @NotNull WhitespaceMode whitespaceMode;
+
+    public TokenTable() {
+        this(WhitespaceMode.eol);
+    }
+
+    public TokenTable(@NotNull WhitespaceMode whitespaceMode) {
+        this.whitespaceMode = whitespaceMode;
+        slots = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        hashes = new int[INITIAL_CAPACITY / 2];
+        texts = new CharSequence[INITIAL_CAPACITY / 2];
+        starts = new int[INITIAL_CAPACITY / 2];
+        ends = new int[INITIAL_CAPACITY / 2];
+    }
+
+    /**
+     * @param hash String-style hash of the region, replaced by the normalized hash unless whitespace is compared exactly
+     * @return id of the region, equal regions always get the same id
+     */
+    public int intern(@NotNull CharSequence text, int start, int end, int hash) {
+        if (whitespaceMode != WhitespaceMode.eol) {
+            hash = whitespaceMode.hash(text, start, end);
+        }
+        int slot = mix(hash) & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                break;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && whitespaceMode.regionEquals(texts[id], starts[id], ends[id], text, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        ensureEntryCapacity();
+        hashes[id] = hash;
+        texts[id] = text;
+        starts[id] = start;
+        ends[id] = end;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureEntryCapacity() {
+        if (size > hashes.length) {
+            int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int newMask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & newMask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & newMask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    private static int mix(int hash) {
+        // murmur3 finalizer, spreads poor String-style hashes over the whole table
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+}
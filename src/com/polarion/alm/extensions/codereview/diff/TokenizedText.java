@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Text split into lines, every line represented by its token id from a shared {@link TokenTable}.
+ * Word diffs use the same structure with words and separators (see {@link WordTokenizer}) in place of lines,
+ * such tokens have no terminators.
+ */
+public final class TokenizedText {
+
+    private final @NotNull CharSequence text;
+    private final int retainedChars;
+    private final int[] tokens;
+    private final int[] lineStarts;
+    private final int[] contentEnds;
+    private final int size;
+
+    TokenizedText(@NotNull CharSequence text, int retainedChars, int[] tokens, int[] lineStarts, int[] contentEnds, int size) {
+        this.text = text;
+        this.retainedChars = retainedChars;
+        this.tokens = tokens;
+        this.lineStarts = lineStarts;
+        this.contentEnds = contentEnds;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return token array, only the first {@link #size()} entries are valid
+     */
+    public int[] tokens() {
+        return tokens;
+    }
+
+    public int token(int line) {
+        return tokens[line];
+    }
+
+    public @NotNull CharSequence text() {
+        return text;
+    }
+
+    public int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * @return end of the line content, line terminator excluded
+     */
+    public int contentEnd(int line) {
+        return contentEnds[line];
+    }
+
+    /**
+     * @return approximate number of bytes retained by this instance
+     */
+    public long estimateSize() {
+        return 2L * retainedChars + 4L * (tokens.length + lineStarts.length + contentEnds.length);
+    }
+
+    public boolean hasTerminator(int line) {
+        return line + 1 < size || contentEnds[line] < text.length();
+    }
+
+    /**
+     * Appends the line content followed by '\n' (whatever the original terminator was).
+     */
+    public void appendLine(@NotNull StringBuilder builder, int line) {
+        builder.append(text, lineStarts[line], contentEnds[line]).append('\n');
+    }
+
+}
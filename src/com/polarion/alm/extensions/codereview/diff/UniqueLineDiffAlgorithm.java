@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Linear time approximation used once the diff deadline is reached: lines occurring exactly once in both ranges are
+ * taken as anchors (greedily, in the order of the second range), gaps between the anchors are only trimmed by their
+ * common prefix and suffix and the rest of every gap is reported as changed.
+ */
+public final class UniqueLineDiffAlgorithm implements DiffAlgorithm {
+
+    @Override
+    public void diff(@NotNull DiffState state, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        int n = firstEnd - firstStart;
+        int m = secondEnd - secondStart;
+        if (n == 0 || m == 0) {
+            state.markChanged(firstStart, firstEnd, secondStart, secondEnd);
+            return;
+        }
+
+        // open addressing table token -> (count in first, count in second, last position in first), sized for the ranges only
+        int capacity = Integer.highestOneBit(2 * (n + m) - 1) << 1;
+        int mask = capacity - 1;
+        int[] keys = new int[capacity];
+        Arrays.fill(keys, -1);
+        int[] firstCounts = new int[capacity];
+        int[] secondCounts = new int[capacity];
+        int[] firstPositions = new int[capacity];
+        for (int i = firstStart; i < firstEnd; i++) {
+            int slot = slot(keys, mask, a[i]);
+            keys[slot] = a[i];
+            firstCounts[slot]++;
+            firstPositions[slot] = i;
+        }
+        for (int j = secondStart; j < secondEnd; j++) {
+            int slot = slot(keys, mask, b[j]);
+            if (keys[slot] >= 0) {
+                secondCounts[slot]++;
+            }
+        }
+
+        int aPos = firstStart;
+        int bPos = secondStart;
+        for (int j = secondStart; j < secondEnd; j++) {
+            int slot = slot(keys, mask, b[j]);
+            if (keys[slot] >= 0 && firstCounts[slot] == 1 && secondCounts[slot] == 1) {
+                int i = firstPositions[slot];
+                if (i >= aPos && j >= bPos) {
+                    diffGap(state, aPos, i, bPos, j);
+                    aPos = i + 1;
+                    bPos = j + 1;
+                }
+            }
+        }
+        diffGap(state, aPos, firstEnd, bPos, secondEnd);
+    }
+
+    private static void diffGap(@NotNull DiffState state, int aStart, int aEnd, int bStart, int bEnd) {
+        int[] a = state.first();
+        int[] b = state.second();
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+            aStart++;
+            bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+        state.markChanged(aStart, aEnd, bStart, bEnd);
+    }
+
+    private static int slot(int[] keys, int mask, int token) {
+        // token ids are dense, a multiplicative hash spreads neighbours
+        int slot = (token * 0x9e3779b9) & mask;
+        while (keys[slot] >= 0 && keys[slot] != token) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
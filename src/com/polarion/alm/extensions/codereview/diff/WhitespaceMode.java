@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How whitespace is treated when lines are compared, selectable by the "diffWhitespace" configuration property and
+ * the "whitespace" request parameter. Line terminators are never part of a line, so every mode ignores them.
+ * Only the hash and the equality used by {@link TokenTable} are normalized, the text itself is kept as it is.
+ */
+public enum WhitespaceMode {
+    /** Only the line terminators are ignored. */
+    eol,
+    /** Changes in the amount of whitespace are ignored, so is trailing whitespace. */
+    change,
+    /** All whitespace is ignored. */
+    all;
+
+    /**
+     * @return hash of the region normalized according to this mode, the same hash as {@link LineTokenizer} computes for {@link #eol}
+     */
+    public int hash(@NotNull CharSequence text, int start, int end) {
+        int hash = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (this != eol && Character.isWhitespace(c)) {
+                i = skipWhitespace(text, i, end);
+                if (this == change && i < end) {
+                    hash = 31 * hash + ' ';
+                }
+            } else {
+                hash = 31 * hash + c;
+                i++;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if both regions are equal after the normalization of this mode
+     */
+    public boolean regionEquals(@NotNull CharSequence text1, int start1, int end1, @NotNull CharSequence text2, int start2, int end2) {
+        if (this == eol) {
+            return exactRegionEquals(text1, start1, end1, text2, start2, end2);
+        }
+        int i = start1;
+        int j = start2;
+        while (true) {
+            boolean whitespace1 = i < end1 && Character.isWhitespace(text1.charAt(i));
+            boolean whitespace2 = j < end2 && Character.isWhitespace(text2.charAt(j));
+            if (whitespace1 || whitespace2) {
+                int next1 = whitespace1 ? skipWhitespace(text1, i, end1) : i;
+                int next2 = whitespace2 ? skipWhitespace(text2, j, end2) : j;
+                // for "change" a whitespace run followed by more content stands for a single space
+                if (this == change && (whitespace1 && next1 < end1) != (whitespace2 && next2 < end2)) {
+                    return false;
+                }
+                i = next1;
+                j = next2;
+            } else if (i == end1 || j == end2) {
+                return i == end1 && j == end2;
+            } else if (text1.charAt(i++) != text2.charAt(j++)) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean exactRegionEquals(@NotNull CharSequence text1, int start1, int end1, @NotNull CharSequence text2, int start2, int end2) {
+        int length = end1 - start1;
+        if (length != end2 - start2) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text1.charAt(start1 + i) != text2.charAt(start2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(@NotNull CharSequence text, int index, int end) {
+        while (index < end && Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    public static @NotNull WhitespaceMode parse(@NotNull String s) {
+        return valueOf(s.trim());
+    }
+
+}
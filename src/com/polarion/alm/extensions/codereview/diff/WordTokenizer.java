@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Splits text into words and separators in a single pass. Separators are the characters ' ', ':', ';', '?' and '!'
+ * and whole XML/HTML tags (quoted attribute values may contain '>'), everything between two separators is a word.
+ */
+public final class WordTokenizer {
+
+    // longer tags are split into words, keeps the scan linear for texts full of unbalanced '<' and quotes
+    private static final int MAX_TAG_LENGTH = 1024;
+
+    private WordTokenizer() {
+    }
+
+    /**
+     * Tokenizes text[start, end), token positions are relative to the whole text.
+     */
+    public static @NotNull TokenizedText tokenize(@NotNull CharSequence text, int start, int end, @NotNull TokenTable table) {
+        LineTokenizer.Lines tokens = new LineTokenizer.Lines(Math.max(16, (end - start) / 4));
+        int wordStart = start;
+        int hash = 0;
+        int i = start;
+        while (i < end) {
+            int separatorEnd = separatorEnd(text, i, end);
+            if (separatorEnd > i) {
+                if (wordStart < i) {
+                    tokens.add(wordStart, i, hash);
+                }
+                int separatorHash = 0;
+                for (int k = i; k < separatorEnd; k++) {
+                    separatorHash = 31 * separatorHash + text.charAt(k);
+                }
+                tokens.add(i, separatorEnd, separatorHash);
+                i = separatorEnd;
+                wordStart = i;
+                hash = 0;
+            } else {
+                hash = 31 * hash + text.charAt(i);
+                i++;
+            }
+        }
+        if (wordStart < end) {
+            tokens.add(wordStart, end, hash);
+        }
+        return tokens.intern(text, 0, table);
+    }
+
+    /**
+     * Finer variant for long lines of minified or generated code: words are runs of letters, digits and '_', every other
+     * character is a token of its own.
+     */
+    public static @NotNull TokenizedText tokenizeAtPunctuation(@NotNull CharSequence text, int start, int end, @NotNull TokenTable table) {
+        LineTokenizer.Lines tokens = new LineTokenizer.Lines(Math.max(16, (end - start) / 2));
+        int i = start;
+        while (i < end) {
+            int tokenStart = i;
+            char c = text.charAt(i++);
+            int hash = c;
+            if (isWordCharacter(c)) {
+                while (i < end && isWordCharacter(c = text.charAt(i))) {
+                    hash = 31 * hash + c;
+                    i++;
+                }
+            }
+            tokens.add(tokenStart, i, hash);
+        }
+        return tokens.intern(text, 0, table);
+    }
+
+    public static boolean isWordCharacter(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * @return end of the separator starting at the index (not beyond limit), the index itself if there is none
+     */
+    public static int separatorEnd(@NotNull CharSequence text, int index, int limit) {
+        char c = text.charAt(index);
+        if (isSeparator(c)) {
+            return index + 1;
+        }
+        return c == '<' ? tagEnd(text, index, Math.min(limit, index + MAX_TAG_LENGTH)) : index;
+    }
+
+    /**
+     * @return true for the single character separators
+     */
+    public static boolean isSeparator(char c) {
+        return c == ' ' || c == ':' || c == ';' || c == '?' || c == '!';
+    }
+
+    private static int tagEnd(@NotNull CharSequence text, int start, int limit) {
+        char quote = 0;
+        for (int i = start + 1; i < limit; i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import com.polarion.alm.extensions.codereview.TextDiffMatchPatch.Diff;
+import com.polarion.alm.extensions.codereview.TextDiffMatchPatch.DiffOperation;
+import com.polarion.alm.extensions.codereview.diff.DiffCorpus;
+import com.polarion.alm.extensions.codereview.diff.EditScript;
+import com.polarion.alm.extensions.codereview.diff.LineDiff;
+import com.polarion.alm.extensions.codereview.diff.MyersDiffAlgorithm;
+import com.polarion.alm.extensions.codereview.diff.TokenTable;
+import com.polarion.alm.extensions.codereview.diff.TokenizedText;
+import com.polarion.alm.extensions.codereview.diff.WordTokenizer;
+
+/**
+ * Compares the token based {@link LineDiff#cleanupSemanticLossless()} of word diffs with the list based one of
+ * {@link TextDiffMatchPatch}. Both start from the same word diff; the results have to be the same except where the list
+ * based pass moves an edit boundary into the middle of a word, which the token based one cannot do.
+ */
+@SuppressWarnings("nls")
+public class TokenCleanupTest {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Test
+    public void semanticLossless() {
+        compare("lossless", LineDiff::cleanupSemanticLossless, diffs -> new TextDiffMatchPatch().diffCleanupSemanticLossless(diffs));
+    }
+
+    private static void compare(@NotNull String name, @NotNull UnaryOperator<LineDiff> tokenCleanup, @NotNull Consumer<List<Diff>> listCleanup) {
+        int same = 0;
+        int shifted = 0;
+        for (DiffCorpus.Case diffCase : DiffCorpus.wordCases()) {
+            List<Diff> expected = toDiffs(wordDiff(diffCase.first, diffCase.second));
+            listCleanup.accept(expected);
+            LineDiff actual = tokenCleanup.apply(wordDiff(diffCase.first, diffCase.second));
+            String message = name + " " + diffCase.name + ": " + format(expected) + " / " + format(toDiffs(actual));
+            List<Diff> actualDiffs = toDiffs(actual);
+            boolean firstShifted = checkShiftedOnly(message, actual.first(), expected, actualDiffs, DiffOperation.DELETE);
+            boolean secondShifted = checkShiftedOnly(message, actual.second(), expected, actualDiffs, DiffOperation.INSERT);
+            if (firstShifted || secondShifted) {
+                shifted++;
+            } else {
+                same++;
+            }
+        }
+        assertTrue(name + ": " + shifted + " of " + (same + shifted) + " diffs differ", same >= shifted);
+    }
+
+    /**
+     * Checks that the changed characters of one text only differ within words the list based cleanup splits, i.e. where
+     * one of its diffs starts or ends inside the word.
+     *
+     * @return true if they differ at all
+     */
+    private static boolean checkShiftedOnly(@NotNull String message, @NotNull TokenizedText text, @NotNull List<Diff> expected, @NotNull List<Diff> actual,
+            @NotNull DiffOperation operation) {
+        int length = text.text().length();
+        boolean[] expectedChanged = new boolean[length];
+        boolean[] split = new boolean[length + 1];
+        int position = 0;
+        for (Diff diff : expected) {
+            if (diff.getOperation() == DiffOperation.EQUAL || diff.getOperation() == operation) {
+                for (int i = 0; i < diff.getText().length(); i++) {
+                    expectedChanged[position++] = diff.getOperation() == operation;
+                }
+                split[position] = true;
+            }
+        }
+        assertEquals(message + " text length", length, position);
+        boolean[] actualChanged = new boolean[length];
+        position = 0;
+        for (Diff diff : actual) {
+            if (diff.getOperation() == DiffOperation.EQUAL || diff.getOperation() == operation) {
+                for (int i = 0; i < diff.getText().length(); i++) {
+                    actualChanged[position++] = diff.getOperation() == operation;
+                }
+            }
+        }
+        boolean differs = false;
+        for (int token = 0; token < text.size(); token++) {
+            int start = text.lineStart(token);
+            int end = text.contentEnd(token);
+            boolean wordSplit = false;
+            for (int i = start + 1; i < end; i++) {
+                wordSplit |= split[i];
+            }
+            for (int i = start; i < end; i++) {
+                if (expectedChanged[i] != actualChanged[i]) {
+                    assertTrue(message + " differs in unsplit word at " + i, wordSplit);
+                    differs = true;
+                }
+            }
+        }
+        return differs;
+    }
+
+    private static @NotNull LineDiff wordDiff(@NotNull String firstText, @NotNull String secondText) {
+        TokenTable table = new TokenTable();
+        TokenizedText first = WordTokenizer.tokenize(firstText, 0, firstText.length(), table);
+        TokenizedText second = WordTokenizer.tokenize(secondText, 0, secondText.length(), table);
+        return LineDiff.compute(first, second, new MyersDiffAlgorithm(), NO_DEADLINE);
+    }
+
+    private static @NotNull List<Diff> toDiffs(@NotNull LineDiff lineDiff) {
+        List<Diff> diffs = new ArrayList<>();
+        EditScript script = lineDiff.editScript();
+        for (int i = 0; i < script.size(); i++) {
+            byte operation = script.operation(i);
+            if (operation == EditScript.EQUAL) {
+                diffs.add(new Diff(DiffOperation.EQUAL, text(lineDiff.first(), script.firstStart(i), script.firstEnd(i))));
+                continue;
+            }
+            if (operation != EditScript.INSERT) {
+                diffs.add(new Diff(DiffOperation.DELETE, text(lineDiff.first(), script.firstStart(i), script.firstEnd(i))));
+            }
+            if (operation != EditScript.DELETE) {
+                diffs.add(new Diff(DiffOperation.INSERT, text(lineDiff.second(), script.secondStart(i), script.secondEnd(i))));
+            }
+        }
+        return diffs;
+    }
+
+    private static @NotNull String text(@NotNull TokenizedText text, int start, int end) {
+        return text.text().subSequence(text.lineStart(start), text.contentEnd(end - 1)).toString();
+    }
+
+    private static @NotNull String format(@NotNull List<Diff> diffs) {
+        StringBuilder builder = new StringBuilder();
+        for (Diff diff : diffs) {
+            switch (diff.getOperation()) {
+            case DELETE:
+                builder.append("[-").append(diff.getText()).append("-]");
+                break;
+            case INSERT:
+                builder.append("{+").append(diff.getText()).append("+}");
+                break;
+            default:
+                builder.append(diff.getText());
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+}
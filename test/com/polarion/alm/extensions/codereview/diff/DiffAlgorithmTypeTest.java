@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+/**
+ * Pins the algorithm chosen by {@link DiffAlgorithmType#auto}.
+ */
+@SuppressWarnings("nls")
+public class DiffAlgorithmTypeTest {
+
+    @Test
+    public void explicitTypes() {
+        assertSelected(MyersDiffAlgorithm.class, DiffAlgorithmType.myers, "a\n", "b\n");
+        assertSelected(HistogramDiffAlgorithm.class, DiffAlgorithmType.histogram, "a\n", "b\n");
+        assertSelected(PatienceDiffAlgorithm.class, DiffAlgorithmType.patience, "a\n", "b\n");
+    }
+
+    @Test
+    public void smallInputUsesMyers() {
+        List<String> lines = uniqueLines(1000);
+        assertSelected(MyersDiffAlgorithm.class, DiffAlgorithmType.auto, join(lines), join(lines));
+        List<String> repeated = repeatedLines(1000);
+        assertSelected(MyersDiffAlgorithm.class, DiffAlgorithmType.auto, join(repeated), join(repeated));
+    }
+
+    @Test
+    public void uniqueLinesUsePatience() {
+        List<String> lines = uniqueLines(5000);
+        List<String> changed = new ArrayList<>(lines);
+        changed.set(2500, "changed line");
+        assertSelected(PatienceDiffAlgorithm.class, DiffAlgorithmType.auto, join(lines), join(changed));
+        // lines shared by both texts are no repetitions
+        assertSelected(PatienceDiffAlgorithm.class, DiffAlgorithmType.auto, join(lines), join(lines));
+    }
+
+    @Test
+    public void repeatedLinesUseHistogram() {
+        List<String> repeated = repeatedLines(5000);
+        assertSelected(HistogramDiffAlgorithm.class, DiffAlgorithmType.auto, join(repeated), join(repeated));
+        // the repetitions of one text are enough
+        assertSelected(HistogramDiffAlgorithm.class, DiffAlgorithmType.auto, join(uniqueLines(5000)), join(repeated));
+        assertSelected(HistogramDiffAlgorithm.class, DiffAlgorithmType.auto, join(repeated), join(uniqueLines(5000)));
+    }
+
+    @Test
+    public void repetitionThreshold() {
+        // 15 % of the lines repeat an earlier line
+        List<String> lines = uniqueLines(4250);
+        lines.addAll(blankLines(750));
+        assertSelected(PatienceDiffAlgorithm.class, DiffAlgorithmType.auto, join(lines), join(lines));
+        // 25 % of the lines repeat an earlier line
+        lines = uniqueLines(3750);
+        lines.addAll(blankLines(1250));
+        assertSelected(HistogramDiffAlgorithm.class, DiffAlgorithmType.auto, join(lines), join(lines));
+    }
+
+    @Test
+    public void emptyText() {
+        assertSelected(PatienceDiffAlgorithm.class, DiffAlgorithmType.auto, "", join(uniqueLines(5000)));
+    }
+
+    private static void assertSelected(@NotNull Class<?> expected, @NotNull DiffAlgorithmType type, @NotNull String first, @NotNull String second) {
+        TokenTable table = new TokenTable();
+        DiffAlgorithm algorithm = type.select(LineTokenizer.tokenize(first, table), LineTokenizer.tokenize(second, table));
+        assertEquals(type.name(), expected, algorithm.getClass());
+    }
+
+    private static @NotNull List<String> uniqueLines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add("line " + i);
+        }
+        return lines;
+    }
+
+    private static @NotNull List<String> repeatedLines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(i % 3 == 0 ? "line " + i : "}");
+        }
+        return lines;
+    }
+
+    private static @NotNull List<String> blankLines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add("");
+        }
+        return lines;
+    }
+
+    private static @NotNull String join(@NotNull List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+}
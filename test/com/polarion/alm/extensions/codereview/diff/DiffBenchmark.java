@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Times the line and word diffs of the {@link DiffCorpus}. Run as plain Java application, the optional argument is the
+ * number of measured runs per diff (default 10), each diff is run as often for warm up before. Prints the median time of
+ * each diff in milliseconds. Minified texts are also diffed at punctuation like the word diff of a single long line.
+ */
+@SuppressWarnings("nls")
+public final class DiffBenchmark {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private DiffBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        for (DiffCorpus.Case diffCase : DiffCorpus.lineCases()) {
+            for (DiffAlgorithmType algorithmType : DiffAlgorithmType.values()) {
+                measure("line " + diffCase.name + " " + algorithmType, runs, () -> {
+                    TokenTable table = new TokenTable();
+                    TokenizedText first = LineTokenizer.tokenize(diffCase.first, table);
+                    TokenizedText second = LineTokenizer.tokenize(diffCase.second, table);
+                    return LineDiff.compute(first, second, algorithmType, NO_DEADLINE);
+                });
+            }
+            if (!diffCase.name.equals("minified")) {
+                continue;
+            }
+            measure("word " + diffCase.name, runs, () -> {
+                TokenTable table = new TokenTable();
+                TokenizedText first = WordTokenizer.tokenizeAtPunctuation(diffCase.first, 0, diffCase.first.length(), table);
+                TokenizedText second = WordTokenizer.tokenizeAtPunctuation(diffCase.second, 0, diffCase.second.length(), table);
+                return LineDiff.compute(first, second, new MyersDiffAlgorithm(), NO_DEADLINE).cleanupSemanticLossless();
+            });
+        }
+        for (DiffCorpus.Case diffCase : DiffCorpus.wordCases()) {
+            measure("word " + diffCase.name, runs, () -> {
+                TokenTable table = new TokenTable();
+                TokenizedText first = WordTokenizer.tokenize(diffCase.first, 0, diffCase.first.length(), table);
+                TokenizedText second = WordTokenizer.tokenize(diffCase.second, 0, diffCase.second.length(), table);
+                return LineDiff.compute(first, second, new MyersDiffAlgorithm(), NO_DEADLINE).cleanupSemanticLossless();
+            });
+        }
+    }
+
+    private static void measure(@NotNull String name, int runs, @NotNull Supplier<LineDiff> diff) {
+        for (int i = 0; i < runs; i++) {
+            diff.get();
+        }
+        long[] nanos = new long[runs];
+        int edits = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            LineDiff lineDiff = diff.get();
+            nanos[i] = System.nanoTime() - start;
+            edits = lineDiff.editScript().size();
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("%-40s %10.3f ms %8d edits", name, nanos[runs / 2] / 1e6, edits));
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Inputs of the diff tests and of {@link DiffBenchmark}. The texts are generated from fixed seeds, so every run
+ * compares the same texts without checking in megabytes of sources.
+ */
+@SuppressWarnings("nls")
+public final class DiffCorpus {
+
+    private static final String[] WORDS = { "int", "final", "return", "value", "index", "count", "builder", "append", "length", "result", "this", "null", "new",
+            "String", "List", "get", "set", "size", "text", "line" };
+
+    private DiffCorpus() {
+    }
+
+    public static final class Case {
+
+        public final @NotNull String name;
+        public final @NotNull String first;
+        public final @NotNull String second;
+
+        Case(@NotNull String name, @NotNull String first, @NotNull String second) {
+            this.name = name;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+    }
+
+    /**
+     * @return texts compared line by line
+     */
+    public static @NotNull List<Case> lineCases() {
+        List<Case> cases = new ArrayList<>();
+        List<String> java = javaLines(new Random(1), 3000);
+        cases.add(new Case("java-edits", join(java, "\n"), join(edit(new Random(2), java, 60), "\n")));
+        List<String> huge = javaLines(new Random(3), 30000);
+        cases.add(new Case("huge", join(huge, "\n"), join(edit(new Random(4), huge, 40), "\n")));
+        List<String> repeated = repeatedLines(new Random(5), 6000);
+        cases.add(new Case("repetition", join(repeated, "\n"), join(edit(new Random(6), repeated, 80), "\n")));
+        List<String> mixed = javaLines(new Random(7), 2000);
+        cases.add(new Case("crlf-lf", join(mixed, "\r\n"), join(edit(new Random(8), mixed, 10), "\n")));
+        List<String> unique = uniqueLines(5000);
+        List<String> uniqueChanged = new ArrayList<>(unique);
+        uniqueChanged.set(2500, "changed line");
+        cases.add(new Case("near-identical", join(unique, "\n"), join(uniqueChanged, "\n")));
+        cases.add(new Case("rewrite", join(javaLines(new Random(9), 2000), "\n"), join(javaLines(new Random(10), 2000), "\n")));
+        String minified = minified(new Random(11), 200000);
+        cases.add(new Case("minified", minified, minified.substring(0, 100000) + "x" + minified.substring(100001)));
+        cases.add(new Case("added", "", join(java.subList(0, 100), "\n")));
+        cases.add(new Case("removed", join(java.subList(0, 100), "\n"), ""));
+        return cases;
+    }
+
+    /**
+     * @return texts compared word by word, as changed lines are
+     */
+    public static @NotNull List<Case> wordCases() {
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("sentence", "The cat came back the very next day.", "The dog came back the next day, again."));
+        cases.add(new Case("code", "int count = builder.length() + offset;", "final int count = builder.size() - offset;"));
+        cases.add(new Case("whitespace", "if (a  &&  b) {", "if (a && b)  {"));
+        cases.add(new Case("markup", "<span class=\"change\">old</span> text", "<span class=\"cr_change\">new</span> text"));
+        Random random = new Random(12);
+        for (int i = 0; i < 20; i++) {
+            String line = sentence(random, 40);
+            cases.add(new Case("random-" + i, line, join(edit(random, words(line), 4), " ")));
+        }
+        for (int i = 0; i < 20; i++) {
+            String line = sentence(random, 60);
+            cases.add(new Case("dense-" + i, line, join(edit(random, words(line), 20), " ")));
+        }
+        return cases;
+    }
+
+    private static @NotNull List<String> javaLines(@NotNull Random random, int count) {
+        List<String> lines = new ArrayList<>(count);
+        int depth = 1;
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                lines.add("");
+            } else if (kind == 1 && depth > 1) {
+                depth--;
+                lines.add(indent(depth) + "}");
+            } else if (kind == 2 && depth < 6) {
+                lines.add(indent(depth) + "if (" + WORDS[random.nextInt(WORDS.length)] + " > " + i + ") {");
+                depth++;
+            } else {
+                lines.add(indent(depth) + sentence(random, 3 + random.nextInt(6)) + ";");
+            }
+        }
+        return lines;
+    }
+
+    private static @NotNull List<String> repeatedLines(@NotNull Random random, int count) {
+        String[] repeated = { "}", "", "    }", "        return null;", "import java.util.List;", "    @Override" };
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(random.nextInt(4) == 0 ? "    value = " + random.nextInt(50) + ";" : repeated[random.nextInt(repeated.length)]);
+        }
+        return lines;
+    }
+
+    private static @NotNull List<String> uniqueLines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("line " + i);
+        }
+        return lines;
+    }
+
+    private static @NotNull String minified(@NotNull Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("function ").append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100)).append("(a,b){return a").append(random.nextBoolean() ? '+' : '*')
+                    .append("b;}");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    private static @NotNull String sentence(@NotNull Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(random.nextInt(5) == 0 ? ", " : " ");
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static @NotNull List<String> words(@NotNull String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.split(" ")) {
+            words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * @return copy of the items with the given number of random deletions, insertions and replacements
+     */
+    private static @NotNull List<String> edit(@NotNull Random random, @NotNull List<String> items, int edits) {
+        List<String> edited = new ArrayList<>(items);
+        for (int i = 0; i < edits && !edited.isEmpty(); i++) {
+            int index = random.nextInt(edited.size());
+            switch (random.nextInt(3)) {
+            case 0:
+                edited.remove(index);
+                break;
+            case 1:
+                edited.add(index, "inserted " + i);
+                break;
+            default:
+                edited.set(index, edited.get(index) + " changed");
+                break;
+            }
+        }
+        return edited;
+    }
+
+    private static @NotNull String indent(int depth) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indent.append("    ");
+        }
+        return indent.toString();
+    }
+
+    private static @NotNull String join(@NotNull List<String> items, @NotNull String separator) {
+        return String.join(separator, items);
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 Polarion AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.polarion.alm.extensions.codereview.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+/**
+ * Compares the diffs of the {@link DiffCorpus} with the results recorded in golden-diffs.properties, so changes of the
+ * diff engine cannot change its results unnoticed. Every diff is also checked to be a valid edit script of its texts.
+ * <p>
+ * After an intended change of the results the file is rewritten by running the test with the system property
+ * "golden.update" set to the path of the file.
+ */
+@SuppressWarnings("nls")
+public class DiffGoldenTest {
+
+    private static final String GOLDEN_FILE = "golden-diffs.properties";
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Test
+    public void lineDiffs() throws IOException {
+        Map<String, String> results = new TreeMap<>();
+        for (DiffCorpus.Case diffCase : DiffCorpus.lineCases()) {
+            for (DiffAlgorithmType algorithmType : DiffAlgorithmType.values()) {
+                TokenTable table = new TokenTable();
+                TokenizedText first = LineTokenizer.tokenize(diffCase.first, table);
+                TokenizedText second = LineTokenizer.tokenize(diffCase.second, table);
+                LineDiff lineDiff = LineDiff.compute(first, second, algorithmType, NO_DEADLINE);
+                results.put("line." + diffCase.name + "." + algorithmType, summarize(diffCase.name, lineDiff));
+            }
+        }
+        checkGolden("line.", results);
+    }
+
+    @Test
+    public void wordDiffs() throws IOException {
+        Map<String, String> results = new TreeMap<>();
+        for (DiffCorpus.Case diffCase : DiffCorpus.wordCases()) {
+            results.put("word." + diffCase.name, summarize(diffCase.name, wordDiff(diffCase).cleanupSemanticLossless()));
+        }
+        for (DiffCorpus.Case diffCase : DiffCorpus.lineCases()) {
+            if (diffCase.name.equals("minified")) {
+                TokenTable table = new TokenTable();
+                TokenizedText first = WordTokenizer.tokenizeAtPunctuation(diffCase.first, 0, diffCase.first.length(), table);
+                TokenizedText second = WordTokenizer.tokenizeAtPunctuation(diffCase.second, 0, diffCase.second.length(), table);
+                LineDiff words = LineDiff.compute(first, second, new MyersDiffAlgorithm(), NO_DEADLINE).cleanupSemanticLossless();
+                results.put("word." + diffCase.name, summarize(diffCase.name, words));
+            }
+        }
+        checkGolden("word.", results);
+    }
+
+    @Test
+    public void smallLineDiff() {
+        TokenTable table = new TokenTable();
+        TokenizedText first = LineTokenizer.tokenize("a\nb\nc\nd\n", table);
+        TokenizedText second = LineTokenizer.tokenize("a\nx\nc\r\nd\ne\n", table);
+        for (DiffAlgorithmType algorithmType : DiffAlgorithmType.values()) {
+            EditScript script = LineDiff.compute(first, second, algorithmType, NO_DEADLINE).editScript();
+            assertEquals(algorithmType.name(), "=0:1/0:1 ~1:2/1:2 =2:4/2:4 +4:4/4:5", format(script));
+        }
+    }
+
+    private static @NotNull LineDiff wordDiff(@NotNull DiffCorpus.Case diffCase) {
+        TokenTable table = new TokenTable();
+        TokenizedText first = WordTokenizer.tokenize(diffCase.first, 0, diffCase.first.length(), table);
+        TokenizedText second = WordTokenizer.tokenize(diffCase.second, 0, diffCase.second.length(), table);
+        return LineDiff.compute(first, second, new MyersDiffAlgorithm(), NO_DEADLINE);
+    }
+
+    /**
+     * @return the diff in a few numbers, the edit script itself only as checksum
+     */
+    static @NotNull String summarize(@NotNull String name, @NotNull LineDiff lineDiff) {
+        verify(name, lineDiff);
+        EditScript script = lineDiff.editScript();
+        CRC32 checksum = new CRC32();
+        int deleted = 0;
+        int inserted = 0;
+        int edits = 0;
+        for (int i = 0; i < script.size(); i++) {
+            checksum.update(script.operation(i));
+            update(checksum, script.firstStart(i));
+            update(checksum, script.firstEnd(i));
+            update(checksum, script.secondStart(i));
+            update(checksum, script.secondEnd(i));
+            if (script.operation(i) != EditScript.EQUAL) {
+                edits++;
+                deleted += script.firstLength(i);
+                inserted += script.secondLength(i);
+            }
+        }
+        return "edits=" + edits + " deleted=" + deleted + " inserted=" + inserted + " script=" + Long.toHexString(checksum.getValue());
+    }
+
+    /**
+     * Checks that the edit script covers both texts without gaps and its equalities are really equal.
+     */
+    static void verify(@NotNull String name, @NotNull LineDiff lineDiff) {
+        assertFalse(name + " degraded", lineDiff.isDegraded());
+        EditScript script = lineDiff.editScript();
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < script.size(); k++) {
+            assertEquals(name + " first gap at " + k, i, script.firstStart(k));
+            assertEquals(name + " second gap at " + k, j, script.secondStart(k));
+            byte operation = script.operation(k);
+            if (operation == EditScript.EQUAL) {
+                assertEquals(name + " equality lengths at " + k, script.firstLength(k), script.secondLength(k));
+                for (int l = 0; l < script.firstLength(k); l++) {
+                    assertEquals(name + " equal tokens at " + k, lineDiff.first().token(i + l), lineDiff.second().token(j + l));
+                    assertFalse(name + " changed flag in equality at " + k, lineDiff.isDeleted(i + l) || lineDiff.isInserted(j + l));
+                }
+            } else {
+                assertTrue(name + " empty edit at " + k, script.firstLength(k) > 0 || script.secondLength(k) > 0);
+            }
+            i = script.firstEnd(k);
+            j = script.secondEnd(k);
+        }
+        assertEquals(name + " first covered", lineDiff.first().size(), i);
+        assertEquals(name + " second covered", lineDiff.second().size(), j);
+    }
+
+    static @NotNull String format(@NotNull EditScript script) {
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < script.size(); k++) {
+            if (k > 0) {
+                text.append(' ');
+            }
+            text.append("=-+~".charAt(script.operation(k))).append(script.firstStart(k)).append(':').append(script.firstEnd(k)).append('/').append(script.secondStart(k)).append(':')
+                    .append(script.secondEnd(k));
+        }
+        return text.toString();
+    }
+
+    private static void update(@NotNull CRC32 checksum, int value) {
+        checksum.update(value >>> 24);
+        checksum.update(value >>> 16);
+        checksum.update(value >>> 8);
+        checksum.update(value);
+    }
+
+    private static void checkGolden(@NotNull String prefix, @NotNull Map<String, String> results) throws IOException {
+        String update = System.getProperty("golden.update");
+        if (update != null) {
+            updateGolden(Paths.get(update), prefix, results);
+            return;
+        }
+        Properties golden = new Properties();
+        try (InputStream in = DiffGoldenTest.class.getResourceAsStream(GOLDEN_FILE)) {
+            if (in != null) {
+                golden.load(in);
+            }
+        }
+        for (Map.Entry<String, String> result : results.entrySet()) {
+            assertEquals(result.getKey(), golden.getProperty(result.getKey()), result.getValue());
+        }
+    }
+
+    /**
+     * Replaces the results with the given prefix in the file, the other results are kept. Keys are sorted, so the
+     * changes of the file show which results changed.
+     */
+    private static void updateGolden(@NotNull Path file, @NotNull String prefix, @NotNull Map<String, String> results) throws IOException {
+        Map<String, String> golden = new TreeMap<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1)) {
+                int separator = line.indexOf('=');
+                if (!line.startsWith("#") && separator > 0 && !line.startsWith(prefix)) {
+                    golden.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        }
+        golden.putAll(results);
+        List<String> lines = new ArrayList<>();
+        lines.add("# Results of DiffGoldenTest, see its javadoc");
+        for (Map.Entry<String, String> result : golden.entrySet()) {
+            lines.add(result.getKey() + "=" + result.getValue());
+        }
+        Files.write(file, lines, StandardCharsets.ISO_8859_1);
+    }
+
+}
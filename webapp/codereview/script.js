@@ -1,10 +1,88 @@
 var currentScroll = null;
 
 onload = function(){
+	// the list of files is streamed after the files themselves
+	$("#codeReviewFileInfo").insertBefore("#codeReviewContainer");
 	renderNav();
 	$(".cr_file_label").stick_in_parent();
+	$(document).on("click", ".cr_collapsed", expandCollapsed);
+	$(document).on("click", ".cr_hunk[data-words]", showWordDiff);
+	observeLazyCompares();
 };
 
+function observeLazyCompares() {
+	var placeholders = $(".cr_lazy");
+	if (!("IntersectionObserver" in window)) {
+		placeholders.each(loadLazyCompare);
+		return;
+	}
+	// start loading well before the file gets visible
+	var observer = new IntersectionObserver(function(entries) {
+		entries.forEach(function(entry) {
+			if (entry.isIntersecting) {
+				observer.unobserve(entry.target);
+				loadLazyCompare.call(entry.target);
+			}
+		});
+	}, {rootMargin: "1500px 0px"});
+	placeholders.each(function() {
+		observer.observe(this);
+	});
+}
+
+function loadLazyCompare() {
+	var placeholder = this;
+	placeholder.className = "cr_lazy cr_loading";
+	$.get(placeholder.getAttribute("data-src"), function(html) {
+		var compare = $(html);
+		compare.find("code").each(function() {
+			if (this.className.indexOf("no-highlight") < 0) {
+				hljs.highlightBlock(this);
+			}
+		});
+		$(placeholder).replaceWith(compare);
+		$(document.body).trigger("sticky_kit:recalc");
+	}).fail(function() {
+		placeholder.className = "cr_lazy cr_lazy_failed";
+		$(placeholder).one("click", loadLazyCompare);
+	});
+}
+
+function highlightFragment(html, placeholder) {
+	var code = document.createElement("code");
+	code.className = $(placeholder).closest("code").attr("class") || "";
+	code.innerHTML = html;
+	if (code.className.indexOf("no-highlight") < 0) {
+		hljs.highlightBlock(code);
+	}
+	return $(code).contents();
+}
+
+function showWordDiff() {
+	var hunk = this;
+	var url = hunk.getAttribute("data-words");
+	hunk.removeAttribute("data-words");
+	$.get(url, function(html) {
+		$(hunk).empty().append(highlightFragment(html, hunk));
+	}).fail(function() {
+		hunk.setAttribute("data-words", url);
+	});
+}
+
+function expandCollapsed() {
+	var placeholder = this;
+	if (placeholder.className.indexOf("cr_loading") >= 0) {
+		return;
+	}
+	placeholder.className += " cr_loading";
+	$.get(placeholder.getAttribute("data-src"), function(html) {
+		$(placeholder).replaceWith(highlightFragment(html, placeholder));
+		$(document.body).trigger("sticky_kit:recalc");
+	}).fail(function() {
+		placeholder.className = placeholder.className.replace(" cr_loading", "");
+	});
+}
+
 function renderNav() {
 	var navContainer = document.createElement("div");
 	navContainer.className = "cr_nav_container";